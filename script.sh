@@ -1,28 +1,87 @@
 #!/bin/bash
 
-# Create folder to clone the repositories into.
-mkdir /repositories
-cd /repositories
+# The build job runs this script once per phase, passing the phase as the first argument: clone, compile, test and collect.
+# Every phase runs in its own exec, so that the build job can apply a separate timeout to each of them.
 
-# Check out the test repository.
-git clone --depth 1 --branch $ARTEMIS_DEFAULT_BRANCH file:///test-repository
+# The build job checks out the repositories on the host into a workspace, which already contains the assignment in the folder "assignment" of the test repository.
+# The clone phase creates the folder to build in, the build job then copies the workspace into it.
+clone() {
+  # The folder already exists if it is mounted as tmpfs.
+  mkdir -p /repositories/test-repository
+}
 
-# Check out the assignment repository.
-git clone --depth 1 --branch $ARTEMIS_DEFAULT_BRANCH file:///assignment-repository
+run_gradle() {
+  chmod +x gradlew
+  if [ "$ARTEMIS_GRADLE_DAEMON" = "true" ]
+  then
+    # Reuse the Gradle daemon started by previous build jobs in this container. The workspace is replaced for every build job, so there is nothing to watch.
+    ./gradlew --daemon --no-watch-fs "$@"
+  else
+    ./gradlew --no-daemon "$@"
+  fi
+}
 
-# Create the folder "assignment" in the test-repository.
-mkdir /repositories/test-repository/assignment
+compile() {
+  cd /repositories/test-repository
+  if [ "$ARTEMIS_BUILD_TOOL" = "gradle" ]
+  then
+    run_gradle clean testClasses
+  else
+    mvn clean test-compile
+  fi
+}
 
-# Copy the content of the assignment-repository into the folder "assignment" in the test-repository.
-cp -a /repositories/assignment-repository/. /repositories/test-repository/assignment/
+run_tests() {
+  cd /repositories/test-repository
+  if [ "$ARTEMIS_BUILD_TOOL" = "gradle" ]
+  then
+    run_gradle test
+  else
+    mvn test
+  fi
+}
 
-# Execute the tests.
-cd /repositories/test-repository
+# Collect the test results and the metadata of the build in one directory, so that the build job can copy them out of the container in one go.
+collect() {
+  mkdir -p /results/test-results
+  if [ "$ARTEMIS_BUILD_TOOL" = "gradle" ]
+  then
+    TEST_RESULTS_DIRECTORY=/repositories/test-repository/build/test-results/test
+  else
+    TEST_RESULTS_DIRECTORY=/repositories/test-repository/target/surefire-reports
+  fi
+  cp $TEST_RESULTS_DIRECTORY/TEST-*.xml /results/test-results/ 2>/dev/null
+  # The compile or test phase wrote its exit code if it failed.
+  if [ ! -f /results/build-exit-code ]
+  then
+    echo 0 > /results/build-exit-code
+  fi
+}
 
-if [ "$ARTEMIS_BUILD_TOOL" = "gradle" ]
-then
-  chmod +x gradlew
-  ./gradlew clean test
-else
-  mvn clean test
-fi
\ No newline at end of file
+case "$1" in
+  clone)
+    clone
+    ;;
+  compile|test)
+    if [ "$1" = "compile" ]
+    then
+      compile
+    else
+      run_tests
+    fi
+    BUILD_EXIT_CODE=$?
+    if [ $BUILD_EXIT_CODE -ne 0 ]
+    then
+      mkdir -p /results
+      echo $BUILD_EXIT_CODE > /results/build-exit-code
+    fi
+    exit $BUILD_EXIT_CODE
+    ;;
+  collect)
+    collect
+    ;;
+  *)
+    echo "Unknown phase: $1"
+    exit 2
+    ;;
+esac
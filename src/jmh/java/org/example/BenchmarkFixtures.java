@@ -0,0 +1,129 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Generates the JUnit reports and result archives the benchmarks run on. The names of the test classes are taken from the sample test repositories, the
+ * reports have the shape of the reports Gradle writes for them, see example_result.
+ */
+final class BenchmarkFixtures {
+
+    private static final Path SAMPLE_REPOSITORIES_PATH = Paths.get("repositories");
+
+    // Used if the benchmarks are not run from the project directory.
+    private static final List<String> FALLBACK_TEST_CLASSES = List.of("testpackage.AttributeTest", "testpackage.ClassTest", "testpackage.ConstructorTest",
+            "testpackage.MethodTest", "testpackage.SortingExampleBehaviorTest");
+
+    // Every fourth test fails with a stack trace like the ones of the structural tests.
+    private static final int FAILURE_INTERVAL = 4;
+
+    private static final String STACK_TRACE = """
+            org.opentest4j.AssertionFailedError: The exercise expects a class with the name Context in the package testpackage. You did not implement the class in the exercise.
+            \tat app//de.tum.in.test.api.structural.StructuralTestProvider.failure(StructuralTestProvider.java:423)
+            \tat app//de.tum.in.test.api.structural.StructuralTestProvider.findClassForTestType(StructuralTestProvider.java:105)
+            \tat app//de.tum.in.test.api.structural.MethodTestProvider.testMethods(MethodTestProvider.java:76)
+            \tat app//org.junit.jupiter.engine.descriptor.DynamicTestTestDescriptor.lambda$execute$0(DynamicTestTestDescriptor.java:53)
+            \tat app//org.junit.jupiter.engine.execution.InvocationInterceptorChain$ValidatingInvocation.proceed(InvocationInterceptorChain.java:131)
+            \tat java.base@17.0.5/java.util.concurrent.FutureTask.run(FutureTask.java:264)
+            \tat java.base@17.0.5/java.lang.Thread.run(Thread.java:833)
+            """;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Returns the fully qualified names of the test classes of the sample test repositories.
+     */
+    static List<String> testClasses() {
+        if (!Files.isDirectory(SAMPLE_REPOSITORIES_PATH)) {
+            return FALLBACK_TEST_CLASSES;
+        }
+        try (Stream<Path> paths = Files.walk(SAMPLE_REPOSITORIES_PATH)) {
+            List<String> testClasses = paths.filter(path -> path.toString().contains("/test/test/") && path.getFileName().toString().endsWith("Test.java"))
+                    .map(path -> path.getParent().getFileName() + "." + path.getFileName().toString().replace(".java", ""))
+                    .distinct()
+                    .sorted()
+                    .collect(Collectors.toList());
+            return testClasses.isEmpty() ? FALLBACK_TEST_CLASSES : testClasses;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Generates the report of one test class.
+     *
+     * @param tests           number of test cases
+     * @param systemOutBytes  size of the captured output of the test class
+     */
+    static byte[] report(String testClass, int tests, int systemOutBytes) {
+        StringBuilder report = new StringBuilder();
+        int failures = (tests + FAILURE_INTERVAL - 1) / FAILURE_INTERVAL;
+        report.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        report.append("<testsuite name=\"").append(testClass).append("\" tests=\"").append(tests).append("\" skipped=\"0\" failures=\"").append(failures)
+                .append("\" errors=\"0\" timestamp=\"2023-02-09T15:59:44\" hostname=\"build-agent\" time=\"0.055\">\n");
+        report.append("  <properties/>\n");
+        for (int i = 0; i < tests; i++) {
+            report.append("  <testcase name=\"test").append(i).append("\" classname=\"").append(testClass).append("\" time=\"0.017\"");
+            if (i % FAILURE_INTERVAL == 0) {
+                report.append(">\n    <failure message=\"org.opentest4j.AssertionFailedError: The exercise expects a class with the name Context\" ")
+                        .append("type=\"org.opentest4j.AssertionFailedError\">").append(STACK_TRACE).append("</failure>\n  </testcase>\n");
+            } else {
+                report.append("/>\n");
+            }
+        }
+        report.append("  <system-out><![CDATA[");
+        String line = "Sorting 1000 elements with MergeSort took 12 ms\n";
+        for (int written = 0; written < systemOutBytes; written += line.length()) {
+            report.append(line);
+        }
+        report.append("]]></system-out>\n");
+        report.append("  <system-err><![CDATA[]]></system-err>\n");
+        report.append("</testsuite>\n");
+        return report.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Packs the reports and the exit code into a tar archive like the one copied from the results directory of a build container.
+     *
+     * @param reports the reports by the name of their test class
+     */
+    static byte[] resultsArchive(Map<String, byte[]> reports, String buildExitCode) {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(archive)) {
+            tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tarOutputStream.putArchiveEntry(new TarArchiveEntry("results/"));
+            tarOutputStream.closeArchiveEntry();
+            tarOutputStream.putArchiveEntry(new TarArchiveEntry("results/test-results/"));
+            tarOutputStream.closeArchiveEntry();
+            for (Map.Entry<String, byte[]> report : reports.entrySet()) {
+                addFile(tarOutputStream, "results/test-results/TEST-" + report.getKey() + ".xml", report.getValue());
+            }
+            addFile(tarOutputStream, "results/build-exit-code", (buildExitCode + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return archive.toByteArray();
+    }
+
+    private static void addFile(TarArchiveOutputStream tarOutputStream, String name, byte[] content) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        tarOutputStream.putArchiveEntry(entry);
+        tarOutputStream.write(content);
+        tarOutputStream.closeArchiveEntry();
+    }
+}
@@ -0,0 +1,55 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses a single JUnit report, as done for every TEST-*.xml of a build job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JUnitReportParserBenchmark {
+
+    /**
+     * small: a test class of the sample repositories, 1000: a test class with 1000 generated test cases, huge-system-out: a small test class that printed 64 MB.
+     */
+    @Param({ "small", "1000", "huge-system-out" })
+    public String suite;
+
+    private final JUnitReportParser reportParser = new JUnitReportParser();
+
+    private byte[] report;
+
+    @Setup
+    public void setUp() {
+        String testClass = BenchmarkFixtures.testClasses().get(0);
+        report = switch (suite) {
+            case "small" -> BenchmarkFixtures.report(testClass, 10, 1024);
+            case "1000" -> BenchmarkFixtures.report(testClass, 1000, 1024);
+            case "huge-system-out" -> BenchmarkFixtures.report(testClass, 10, 64 * 1024 * 1024);
+            default -> throw new IllegalArgumentException("Unknown suite " + suite);
+        };
+    }
+
+    @Benchmark
+    public JUnitReportParser.TestSuite parse() throws XMLStreamException {
+        return reportParser.parse(new ByteArrayInputStream(report));
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializes the result of a build job with the {@link LocalCIBuildJobSerializer}, as JSON and in the binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalCIBuildJobDTOBenchmark {
+
+    @Param({ "10", "1000" })
+    public int testsPerClass;
+
+    private final LocalCIBuildJobSerializer serializer = new LocalCIBuildJobSerializer();
+
+    private LocalCIBuildJobDTO result;
+
+    private byte[] jsonResult;
+
+    private byte[] binaryResult;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, byte[]> reports = new LinkedHashMap<>();
+        for (String testClass : BenchmarkFixtures.testClasses()) {
+            reports.put(testClass, BenchmarkFixtures.report(testClass, testsPerClass, 0));
+        }
+        byte[] archive = BenchmarkFixtures.resultsArchive(reports, "1");
+        result = LocalCIBuildJob.readResults(new ByteArrayInputStream(archive), new JUnitReportParser(), "assignment", "test", nanos -> {
+        });
+        jsonResult = writeJson();
+        binaryResult = writeBinary();
+    }
+
+    @Benchmark
+    public byte[] writeJson() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serializer.writeJson(result, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public LocalCIBuildJobDTO readJson() throws IOException {
+        return serializer.readJson(new ByteArrayInputStream(jsonResult));
+    }
+
+    @Benchmark
+    public byte[] writeBinary() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serializer.writeBinary(result, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public LocalCIBuildJobDTO readBinary() throws IOException {
+        return serializer.readBinary(new ByteArrayInputStream(binaryResult));
+    }
+}
@@ -0,0 +1,138 @@
+package org.example;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.StreamType;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs many builds at the same time against the local Docker daemon, each on a worker thread of the given {@link LocalCIThreadMode} like the workers of a
+ * {@link LocalCIBuildAgent}. Every build runs a command per phase through {@link LocalCIContainerService#executeCommand} that prints its output slowly, so the
+ * workers spend most of their time waiting for Docker, and then copies an archive out of its container like the results of a build job.
+ * <p>
+ * Needs a Docker daemon, the image is pulled if it is missing. Virtual threads need Java 21, on older JVMs both modes run on platform threads. Run with
+ * -PjmhArgs="LocalCIThreadModeBenchmark -jvmArgs -Djdk.tracePinnedThreads=full" to check that no worker waits for Docker pinned to its carrier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LocalCIThreadModeBenchmark {
+
+    private static final List<LocalCIBuildPhase> PHASES = List.of(LocalCIBuildPhase.CLONE, LocalCIBuildPhase.COMPILE, LocalCIBuildPhase.TEST);
+
+    // Prints a line to stdout and stderr every 50 milliseconds for a quarter of a second.
+    private static final String COMMAND = "for i in 1 2 3 4 5; do echo \"> Task :test line $i of the build output\"; echo \"warning $i\" >&2; sleep 0.05; done";
+
+    @Param({ "PLATFORM", "VIRTUAL" })
+    public LocalCIThreadMode threadMode;
+
+    // One container per build, the daemon has to keep all of them running.
+    @Param({ "50", "200" })
+    public int concurrentBuilds;
+
+    @Param({ "alpine:3.18" })
+    public String image;
+
+    private LocalCIDockerClientFactory dockerClientFactory;
+
+    private LocalCIContainerService containerService;
+
+    private ThreadFactory threadFactory;
+
+    private final List<String> containerIds = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        LocalCIDockerClientSettings local = LocalCIDockerClientSettings.local();
+        dockerClientFactory = new LocalCIDockerClientFactory();
+        // Every running exec and every copy holds a connection.
+        DockerClient dockerClient = dockerClientFactory.getDockerClient(
+                new LocalCIDockerClientSettings(local.dockerHost(), 2 * concurrentBuilds, local.connectionTimeout(), local.responseTimeout()));
+        try {
+            dockerClient.pingCmd().exec();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("LocalCIThreadModeBenchmark needs a Docker daemon at " + local.dockerHost(), e);
+        }
+        try {
+            dockerClient.inspectImageCmd(image).exec();
+        } catch (NotFoundException e) {
+            dockerClient.pullImageCmd(image).start().awaitCompletion();
+        }
+        containerService = new LocalCIContainerService(dockerClient, "benchmark", new LocalCIBuildMetrics(), threadMode);
+        for (int i = 0; i < concurrentBuilds; i++) {
+            containerIds.add(containerService.createAndStartContainer(image, HostConfig.newHostConfig()));
+        }
+        threadFactory = threadMode.threadFactory("benchmark-build-");
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (String containerId : containerIds) {
+            containerService.killContainer(containerId);
+        }
+        containerService.close();
+        dockerClientFactory.close();
+    }
+
+    @Benchmark
+    public long runBuilds() throws InterruptedException {
+        AtomicLong outputBytes = new AtomicLong();
+        CountDownLatch finishedBuilds = new CountDownLatch(concurrentBuilds);
+        for (String containerId : containerIds) {
+            threadFactory.newThread(() -> {
+                try {
+                    outputBytes.addAndGet(runBuild(containerId));
+                } finally {
+                    finishedBuilds.countDown();
+                }
+            }).start();
+        }
+        finishedBuilds.await();
+        return outputBytes.get();
+    }
+
+    private long runBuild(String containerId) {
+        LocalCIBuildLog buildLog = new LocalCIBuildLog(LocalCIBuildLog.DEFAULT_BUFFER_SIZE_BYTES);
+        for (LocalCIBuildPhase phase : PHASES) {
+            containerService.executeCommand(containerId, frame -> buildLog.append(phase, frame.getStreamType() == StreamType.STDERR, frame.getPayload()), "sh", "-c",
+                    COMMAND);
+        }
+        long outputLength = buildLog.getRecentOutput().length();
+        buildLog.close();
+        try {
+            // Like the results of a build job, the archive is read from the Docker socket.
+            return outputLength + containerService.callBlocking(() -> {
+                try (InputStream archive = containerService.getDockerClient().copyArchiveFromContainerCmd(containerId, "/etc").exec()) {
+                    return archive.transferTo(OutputStream.nullOutputStream());
+                }
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not copy the archive out of container " + containerId, e);
+        }
+    }
+}
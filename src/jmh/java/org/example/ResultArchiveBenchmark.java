@@ -0,0 +1,71 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads the tar archive of the results directory of a build container, with one report per test class of the sample repositories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultArchiveBenchmark {
+
+    @Param({ "10", "1000" })
+    public int testsPerClass;
+
+    private final JUnitReportParser reportParser = new JUnitReportParser();
+
+    private byte[] archive;
+
+    @Setup
+    public void setUp() {
+        Map<String, byte[]> reports = new LinkedHashMap<>();
+        for (String testClass : BenchmarkFixtures.testClasses()) {
+            reports.put(testClass, BenchmarkFixtures.report(testClass, testsPerClass, 1024));
+        }
+        archive = BenchmarkFixtures.resultsArchive(reports, "1");
+    }
+
+    /**
+     * Only walks over the entries, the baseline for reading the results.
+     */
+    @Benchmark
+    public long iterateEntries() throws IOException {
+        long size = 0;
+        try (TarArchiveInputStream tarInputStream = new TarArchiveInputStream(new ByteArrayInputStream(archive))) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInputStream.getNextTarEntry()) != null) {
+                size += tarEntry.getSize();
+            }
+        }
+        return size;
+    }
+
+    @Benchmark
+    public LocalCIBuildJobDTO readResults() throws IOException, XMLStreamException {
+        return LocalCIBuildJob.readResults(new ByteArrayInputStream(archive), reportParser, "assignment", "test", nanos -> {
+        });
+    }
+}
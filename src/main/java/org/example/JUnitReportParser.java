@@ -0,0 +1,251 @@
+package org.example;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parses JUnit XML reports (TEST-*.xml) as written by Gradle and the Maven Surefire plugin.
+ * <p>
+ * The report is read directly from the given stream, e.g. the current entry of the tar archive copied from the build container, without reading it into
+ * memory first. The content of system-out and system-err, which can be arbitrarily large, is skipped without being collected.
+ * Instances are thread-safe and should be reused, creating an {@link XMLInputFactory} is expensive.
+ */
+public class JUnitReportParser {
+
+    // JDK specific property that makes the parser report large CDATA sections, e.g. the captured output in system-out, in chunks instead of as one string.
+    private static final String CDATA_CHUNK_SIZE_PROPERTY = "jdk.xml.cdataChunkSize";
+
+    private static final int CDATA_CHUNK_SIZE = 8192;
+
+    // Only the beginning of a stack trace is kept, the frames of the test framework below it are of no use to students.
+    private static final int MAX_STACK_TRACE_LENGTH = 2000;
+
+    private final XMLInputFactory xmlInputFactory;
+
+    private enum State {
+        // Outside of a testcase element, e.g. in testsuites or testsuite.
+        SUITE,
+        // Directly inside a testcase element.
+        TEST_CASE,
+        // Inside a failure or error element, whose text is the stack trace.
+        STACK_TRACE
+    }
+
+    public JUnitReportParser() {
+        xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        // The reports are produced by student code, never resolve anything outside the document.
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        if (xmlInputFactory.isPropertySupported(CDATA_CHUNK_SIZE_PROPERTY)) {
+            xmlInputFactory.setProperty(CDATA_CHUNK_SIZE_PROPERTY, CDATA_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Parses one report. The stream is not closed.
+     * The root element can either be a single testsuite or a testsuites element containing several, possibly nested, testsuite elements.
+     */
+    public TestSuite parse(InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(inputStream);
+        try {
+            // Move to the root element.
+            xmlStreamReader.nextTag();
+            String rootElement = xmlStreamReader.getLocalName();
+            if (!rootElement.equals("testsuite") && !rootElement.equals("testsuites")) {
+                throw new IllegalStateException("Expected testsuite element, but got " + rootElement);
+            }
+
+            List<LocalCITestCaseDTO> failedTests = new ArrayList<>();
+            List<LocalCITestCaseDTO> successfulTests = new ArrayList<>();
+            List<LocalCITestCaseDTO> skippedTests = new ArrayList<>();
+
+            State state = State.SUITE;
+            TestCaseBuilder testCase = null;
+            StringBuilder stackTrace = null;
+
+            int event = xmlStreamReader.getEventType();
+            while (true) {
+                switch (state) {
+                    case SUITE -> {
+                        if (event == XMLStreamConstants.START_ELEMENT) {
+                            switch (xmlStreamReader.getLocalName()) {
+                                case "testsuites", "testsuite" -> {
+                                    // Only containers for the testcase elements.
+                                }
+                                case "testcase" -> {
+                                    testCase = new TestCaseBuilder(xmlStreamReader.getAttributeValue(null, "name"), xmlStreamReader.getAttributeValue(null, "classname"),
+                                            parseDurationMillis(xmlStreamReader.getAttributeValue(null, "time")));
+                                    state = State.TEST_CASE;
+                                }
+                                // E.g. properties, system-out and system-err of the test suite.
+                                default -> skipElement(xmlStreamReader);
+                            }
+                        }
+                    }
+                    case TEST_CASE -> {
+                        if (event == XMLStreamConstants.START_ELEMENT) {
+                            switch (xmlStreamReader.getLocalName()) {
+                                case "failure", "error" -> {
+                                    LocalCITestStatus status = xmlStreamReader.getLocalName().equals("failure") ? LocalCITestStatus.FAILED : LocalCITestStatus.ERROR;
+                                    testCase.setStatus(status);
+                                    testCase.addMessage(readMessage(xmlStreamReader));
+                                    stackTrace = new StringBuilder();
+                                    state = State.STACK_TRACE;
+                                }
+                                // Surefire reports the failures of reruns next to the failure of the first run.
+                                case "rerunFailure", "rerunError" -> {
+                                    testCase.addMessage(readMessage(xmlStreamReader));
+                                    skipElement(xmlStreamReader);
+                                }
+                                case "skipped" -> {
+                                    testCase.setStatus(LocalCITestStatus.SKIPPED);
+                                    testCase.addMessage(xmlStreamReader.getAttributeValue(null, "message"));
+                                    skipElement(xmlStreamReader);
+                                }
+                                // E.g. system-out and system-err of the test case, or flakyFailure for a test that passed on a rerun.
+                                default -> skipElement(xmlStreamReader);
+                            }
+                        } else if (event == XMLStreamConstants.END_ELEMENT) {
+                            // End of the testcase element.
+                            LocalCITestCaseDTO testCaseDTO = testCase.build();
+                            switch (testCaseDTO.getStatus()) {
+                                case PASSED -> successfulTests.add(testCaseDTO);
+                                case SKIPPED -> skippedTests.add(testCaseDTO);
+                                default -> failedTests.add(testCaseDTO);
+                            }
+                            testCase = null;
+                            state = State.SUITE;
+                        }
+                    }
+                    case STACK_TRACE -> {
+                        if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                            appendBounded(stackTrace, xmlStreamReader);
+                        } else if (event == XMLStreamConstants.START_ELEMENT) {
+                            skipElement(xmlStreamReader);
+                        } else if (event == XMLStreamConstants.END_ELEMENT) {
+                            String trimmedStackTrace = stackTrace.toString().strip();
+                            if (!trimmedStackTrace.isEmpty()) {
+                                testCase.addMessage(trimmedStackTrace);
+                            }
+                            stackTrace = null;
+                            state = State.TEST_CASE;
+                        }
+                    }
+                }
+                if (!xmlStreamReader.hasNext()) {
+                    break;
+                }
+                event = xmlStreamReader.next();
+            }
+            return new TestSuite(failedTests, successfulTests, skippedTests);
+        } finally {
+            // Does not close the underlying stream.
+            xmlStreamReader.close();
+        }
+    }
+
+    // The message attribute is optional, fall back to the type of the exception.
+    private static String readMessage(XMLStreamReader xmlStreamReader) {
+        String message = xmlStreamReader.getAttributeValue(null, "message");
+        return message != null ? message : xmlStreamReader.getAttributeValue(null, "type");
+    }
+
+    private static void appendBounded(StringBuilder stackTrace, XMLStreamReader xmlStreamReader) {
+        int remaining = MAX_STACK_TRACE_LENGTH - stackTrace.length();
+        if (remaining > 0) {
+            int length = Math.min(remaining, xmlStreamReader.getTextLength());
+            stackTrace.append(xmlStreamReader.getTextCharacters(), xmlStreamReader.getTextStart(), length);
+        }
+    }
+
+    // The time attribute is given in seconds, e.g. "0.017".
+    private static long parseDurationMillis(String time) {
+        if (time == null || time.isBlank()) {
+            return 0;
+        }
+        try {
+            return new BigDecimal(time.strip().replace(",", "")).movePointRight(3).longValue();
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Moves the reader to the end element of the current start element without looking at the content.
+    private static void skipElement(XMLStreamReader xmlStreamReader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlStreamReader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static class TestCaseBuilder {
+
+        private final String name;
+
+        private final String className;
+
+        private final long durationMillis;
+
+        private LocalCITestStatus status = LocalCITestStatus.PASSED;
+
+        private List<String> messages;
+
+        TestCaseBuilder(String name, String className, long durationMillis) {
+            this.name = name;
+            this.className = className;
+            this.durationMillis = durationMillis;
+        }
+
+        // Keeps the most severe status if a test case contains several result elements.
+        void setStatus(LocalCITestStatus status) {
+            if (severity(status) > severity(this.status)) {
+                this.status = status;
+            }
+        }
+
+        void addMessage(String message) {
+            if (message == null) {
+                return;
+            }
+            if (messages == null) {
+                messages = new ArrayList<>();
+            }
+            messages.add(message);
+        }
+
+        LocalCITestCaseDTO build() {
+            return new LocalCITestCaseDTO(name, className, status, durationMillis, messages);
+        }
+
+        private static int severity(LocalCITestStatus status) {
+            return switch (status) {
+                case PASSED -> 0;
+                case SKIPPED -> 1;
+                case FAILED -> 2;
+                case ERROR -> 3;
+            };
+        }
+    }
+
+    /**
+     * The test cases of one report.
+     */
+    public record TestSuite(List<LocalCITestCaseDTO> failedTests, List<LocalCITestCaseDTO> successfulTests, List<LocalCITestCaseDTO> skippedTests) {
+
+        public boolean isSuccessful() {
+            return failedTests.isEmpty();
+        }
+    }
+}
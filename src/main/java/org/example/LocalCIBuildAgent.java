@@ -0,0 +1,179 @@
+package org.example;
+
+import com.github.dockerjava.api.DockerClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs build jobs on one Docker host. An agent has its own {@link DockerClient}, container pool and number of concurrent builds. Its workers take build jobs
+ * from a {@link LocalCIBuildJobExecutor} whenever they are free, so agents with free capacity automatically take over the work the busy agents do not get to.
+ * <p>
+ * The agent sends a heartbeat to the executor as long as its Docker host responds. If the heartbeats stop, the executor moves the build jobs of the agent to
+ * other agents. Several agents can run in the same process, also against the same Docker host.
+ * <p>
+ * The dependency cache is bind mounted into the build containers, so its path must exist on the Docker host of the agent, e.g. on a shared file system for a
+ * remote host. The workspaces are copied into the build containers.
+ */
+public class LocalCIBuildAgent implements AutoCloseable {
+
+    private static final int DEFAULT_MAX_USES_PER_CONTAINER = 20;
+
+    // Idle containers, e.g. of an exercise nobody builds anymore, are removed after this time. In daemon mode they keep a Gradle daemon in memory.
+    private static final Duration DEFAULT_IDLE_CONTAINER_TIMEOUT = Duration.ofMinutes(10);
+
+    // How long an idle worker waits for a build job before it checks whether the agent was closed.
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    private final String name;
+
+    private final int concurrentBuilds;
+
+    private final Duration heartbeatInterval;
+
+    private final LocalCIThreadMode threadMode;
+
+    private final LocalCIContainerService containerService;
+
+    private final LocalCIContainerPool containerPool;
+
+    private final LocalCIWorkspaceService workspaceService;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final AtomicInteger runningBuildJobs = new AtomicInteger();
+
+    private final ScheduledExecutorService heartbeatScheduler;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param name                identifies the agent, must be unique among the agents of an executor
+     * @param gradleDaemonEnabled keep a Gradle daemon running in every Gradle build container and reuse it for later build jobs of the same exercise
+     * @param metrics             where the agent records the durations of container operations, usually the metrics of the executor
+     * @param threadMode          the threads the workers run on, with {@link LocalCIThreadMode#VIRTUAL} the workers do not hold platform threads, but their Docker I/O still does
+     */
+    public LocalCIBuildAgent(String name, DockerClient dockerClient, LocalCIDependencyCache dependencyCache, LocalCIWorkspaceService workspaceService, int concurrentBuilds,
+            boolean gradleDaemonEnabled, Duration heartbeatInterval, LocalCIBuildMetrics metrics, LocalCIThreadMode threadMode) {
+        if (concurrentBuilds < 1) {
+            throw new IllegalArgumentException("Invalid number of concurrent builds: " + concurrentBuilds);
+        }
+        this.name = name;
+        this.concurrentBuilds = concurrentBuilds;
+        this.heartbeatInterval = heartbeatInterval;
+        this.threadMode = threadMode.effective();
+        if (this.threadMode != threadMode) {
+            System.out.println("Agent " + name + " runs its build jobs on platform threads, virtual threads need Java 21");
+        }
+        this.workspaceService = workspaceService;
+        this.containerService = new LocalCIContainerService(dockerClient, name, metrics, this.threadMode);
+        // Containers left over from a previous run of this agent would otherwise keep running forever.
+        int leakedContainers = containerService.removeLeakedContainers();
+        if (leakedContainers > 0) {
+            System.out.println("Agent " + name + " removed " + leakedContainers + " leaked build containers");
+        }
+        // Keep one idle container per worker, so that a burst of build jobs does not have to wait for container start-up. In daemon mode there is a key per
+        // exercise and participation, so the total is limited as well.
+        this.containerPool = new LocalCIContainerPool(containerService, dependencyCache, concurrentBuilds, 2 * concurrentBuilds,
+                DEFAULT_IDLE_CONTAINER_TIMEOUT, DEFAULT_MAX_USES_PER_CONTAINER, gradleDaemonEnabled);
+        this.heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "local-ci-agent-" + name + "-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the workers and the heartbeats. Called by the executor when the agent is added.
+     */
+    synchronized void start(LocalCIBuildJobExecutor executor) {
+        if (!workers.isEmpty()) {
+            throw new IllegalStateException("Agent " + name + " is already started");
+        }
+        heartbeatScheduler.scheduleAtFixedRate(() -> sendHeartbeat(executor), 0, heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+        ThreadFactory workerFactory = threadMode.threadFactory("local-ci-agent-" + name + "-build-");
+        for (int i = 1; i <= concurrentBuilds; i++) {
+            Thread worker = workerFactory.newThread(() -> {
+                while (!closed) {
+                    try {
+                        executor.runNextBuildJob(this, POLL_TIMEOUT);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (RuntimeException e) {
+                        // The executor completes the build job, the worker carries on with the next one.
+                        System.out.println("Agent " + name + " failed to run a build job: " + e.getMessage());
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    // Only report being alive if the Docker host responds, otherwise the executor moves the build jobs to other agents.
+    private void sendHeartbeat(LocalCIBuildJobExecutor executor) {
+        try {
+            containerService.getDockerClient().pingCmd().exec();
+            executor.heartbeat(this);
+        } catch (RuntimeException e) {
+            System.out.println("Agent " + name + " cannot reach its Docker host: " + e.getMessage());
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getConcurrentBuilds() {
+        return concurrentBuilds;
+    }
+
+    public int getRunningBuildJobs() {
+        return runningBuildJobs.get();
+    }
+
+    LocalCIContainerService getContainerService() {
+        return containerService;
+    }
+
+    LocalCIContainerPool getContainerPool() {
+        return containerPool;
+    }
+
+    LocalCIWorkspaceService getWorkspaceService() {
+        return workspaceService;
+    }
+
+    void buildJobStarted() {
+        runningBuildJobs.incrementAndGet();
+    }
+
+    void buildJobFinished() {
+        runningBuildJobs.decrementAndGet();
+    }
+
+    /**
+     * Stops taking new build jobs, waits for the running build jobs to finish and removes the containers of the agent.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        heartbeatScheduler.shutdownNow();
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        containerPool.close();
+        containerService.close();
+    }
+}
@@ -1,26 +1,25 @@
 package org.example;
 
 import com.github.dockerjava.api.DockerClient;
-import com.github.dockerjava.api.async.ResultCallback;
-import com.github.dockerjava.api.command.CreateContainerResponse;
-import com.github.dockerjava.api.command.ExecCreateCmdResponse;
-import com.github.dockerjava.api.model.Bind;
-import com.github.dockerjava.api.model.HostConfig;
-import com.github.dockerjava.api.model.Volume;
-import com.github.dockerjava.core.DefaultDockerClientConfig;
-import com.github.dockerjava.core.DockerClientBuilder;
-import com.github.dockerjava.core.DockerClientConfig;
-
-import java.io.*;
+import com.github.dockerjava.api.model.StreamType;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.time.ZonedDateTime;
-import java.time.temporal.ChronoUnit;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamReader;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
@@ -28,6 +27,8 @@ import org.apache.commons.io.IOUtils;
 
 public class LocalCIBuildJob {
 
+    private static final String RESULTS_PATH = "/results";
+
     private final BuildTool buildTool;
 
     private final Path assignmentRepositoryPath;
@@ -36,180 +37,262 @@ public class LocalCIBuildJob {
 
     private final Path scriptPath;
 
+    private final LocalCIBuildTimeouts timeouts;
+
+    private final LocalCIResourceProfile resourceProfile;
+
+    private final LocalCIContainerService containerService;
+
+    private final LocalCIContainerPool containerPool;
+
+    private final LocalCIWorkspaceService workspaceService;
+
+    private final LocalCIGitService gitService;
+
+    private final JUnitReportParser reportParser;
+
+    // Kills the build container when a phase exceeds its timeout.
+    private final ScheduledExecutorService timeoutScheduler;
+
     private final DockerClient dockerClient;
 
-    public LocalCIBuildJob(BuildTool buildTool, Path assignmentRepositoryPath, Path testRepositoryPath, Path scriptPath) {
+    private final LocalCIBuildLog buildLog;
+
+    private final LocalCIBuildMetrics metrics;
+
+    // Time spent parsing the test reports during the extraction phase, to tell copying and parsing apart.
+    private long parseNanos = 0;
+
+    // The container the job is currently running in, so that it can be killed when the job is cancelled.
+    private volatile LocalCIContainer container;
+
+    private volatile boolean cancelled = false;
+
+    public LocalCIBuildJob(LocalCIContainerService containerService, LocalCIContainerPool containerPool, LocalCIWorkspaceService workspaceService,
+            LocalCIGitService gitService, JUnitReportParser reportParser, ScheduledExecutorService timeoutScheduler, BuildTool buildTool, Path assignmentRepositoryPath,
+            Path testRepositoryPath, Path scriptPath, LocalCIBuildTimeouts timeouts, LocalCIResourceProfile resourceProfile, LocalCIBuildLog buildLog,
+            LocalCIBuildMetrics metrics) {
+        this.containerService = containerService;
+        this.containerPool = containerPool;
+        this.workspaceService = workspaceService;
+        this.gitService = gitService;
+        this.reportParser = reportParser;
+        this.timeoutScheduler = timeoutScheduler;
+        this.dockerClient = containerService.getDockerClient();
         this.buildTool = buildTool;
         this.assignmentRepositoryPath = assignmentRepositoryPath;
         this.testRepositoryPath = testRepositoryPath;
         this.scriptPath = scriptPath;
-
-        String connectionUri;
-        if (System.getProperty("os.name").toLowerCase().contains("windows")) {
-            connectionUri = "tcp://localhost:2375";
-        } else {
-            connectionUri = "unix:///var/run/docker.sock";
-        }
-
-        DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder().withDockerHost(connectionUri)
-                .build();
-        dockerClient = DockerClientBuilder.getInstance(config).build();
+        this.timeouts = timeouts;
+        this.resourceProfile = resourceProfile;
+        this.buildLog = buildLog;
+        this.metrics = metrics;
     }
 
-    public void runBuildJob() throws IOException {
+    public LocalCIBuildJobDTO runBuildJob() {
 
-        HostConfig hostConfig = HostConfig.newHostConfig()
-                .withAutoRemove(true) // Automatically remove the container when it exits.
-                .withBinds(new Bind(assignmentRepositoryPath.toString(), new Volume("/assignment-repository")),
-                        new Bind(testRepositoryPath.toString(), new Volume("/test-repository")),
-                        new Bind(scriptPath.toString(), new Volume("/script.sh")));
+        long buildStartedNanos = System.nanoTime();
 
-        // Create the container from the "ls1tum/artemis-maven-template:java17-13" image with the local paths to the Git repositories and the shell script bound to it.
-        CreateContainerResponse container = dockerClient.createContainerCmd("ls1tum/artemis-maven-template:java17-13")
-                .withHostConfig(hostConfig)
-                .withEnv("ARTEMIS_BUILD_TOOL=" + buildTool.toString().toLowerCase(), "ARTEMIS_DEFAULT_BRANCH=main") // TODO: Replace with default branch for participation.
-                // Command to run when the container starts. This is the command that will be executed in the container's main process, which runs in the foreground and blocks the container from exiting until it finishes.
-                // It waits until the script that is running the tests (see below execCreateCmdResponse) is completed, which is running in the background and indicates termination by creating a file "script_completed.txt" in the root directory.
-                //.withCmd("sh", "-c", "while [ ! -f /results_extracted.txt ]; do sleep 0.5; done")
-                .withCmd("tail", "-f", "/dev/null") // Activate for debugging purposes instead of the above command to get a running container that you can peek into using "docker exec -it <container-id> /bin/bash".
-                .exec();
+        // Lease a started container from the "ls1tum/artemis-maven-template:java17-13" image. The container is reset and returned to the pool after the build.
+        // The test repository identifies the exercise, the assignment repository the participation.
+        LocalCIContainer container = containerPool.leaseContainer(LocalCIContainerPool.DEFAULT_IMAGE, buildTool, testRepositoryPath.toString(),
+                assignmentRepositoryPath.toString(), resourceProfile);
+        metrics.recordSince(LocalCIBuildMetrics.Stage.CONTAINER_LEASE, buildStartedNanos);
+        this.container = container;
+        boolean containerReusable = false;
+        String workspaceId = UUID.randomUUID().toString();
+        // Known as soon as the refs are resolved, so that a build job that times out later still reports the commits it built.
+        AtomicReference<CommitHashes> resolvedCommitHashes = new AtomicReference<>(new CommitHashes(null, null));
 
         try {
-            ZonedDateTime buildStartedDate = ZonedDateTime.now();
+            if (cancelled) {
+                throw new CancellationException("Build job was cancelled");
+            }
 
-            // Start the container.
-            dockerClient.startContainerCmd(container.getId()).exec();
+            CommitHashes commitHashes = runPhase(LocalCIBuildPhase.CLONE, () -> {
+                // Check out only the files of the commits to build on the host, straight from the object stores of the bare repositories. Only the files of this
+                // workspace are copied into the container, so it never sees the history of the repositories or the workspaces of other build jobs.
+                String assignmentCommitHash = gitService.resolveCommitHash(assignmentRepositoryPath);
+                String testCommitHash = gitService.resolveCommitHash(testRepositoryPath);
+                resolvedCommitHashes.set(new CommitHashes(assignmentCommitHash, testCommitHash));
+                workspaceService.createWorkspace(workspaceId, assignmentRepositoryPath, assignmentCommitHash, testRepositoryPath, testCommitHash,
+                        timeouts.forPhase(LocalCIBuildPhase.CLONE));
+                // Copy the shell script into the container. The pooled containers are already running, so it cannot be bound as a volume.
+                containerService.copyToContainer(container.getId(), scriptPath, "/");
+                if (runScript(container, LocalCIBuildPhase.CLONE, "clone") != 0) {
+                    throw new LocalCIException("Could not prepare the container for the workspace");
+                }
+                containerService.copyToContainer(container.getId(), workspaceService.getWorkspacePath(workspaceId), LocalCIContainerPool.REPOSITORY_IN_CONTAINER);
+                return resolvedCommitHashes.get();
+            });
 
-            // The "sh script.sh" command specified here is run inside the container as an additional process. This command runs in the background, independent of the container's main process. The execution command can run concurrently with the main process.
-            // Creates a script_completed file in the container's root directory when the script finishes. The main process is waiting for this file to appear and then stops the main process, thus stopping the container.
-            ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(container.getId()).withAttachStdout(true).withAttachStderr(true).withCmd("sh", "script.sh").exec();
+            // The script records the exit code of a failing compile or test phase in the results. If the code does not compile, there is nothing to test.
+            long compileExitCode = runPhase(LocalCIBuildPhase.COMPILE, () -> runScript(container, LocalCIBuildPhase.COMPILE, "compile"));
+            if (compileExitCode == 0) {
+                runPhase(LocalCIBuildPhase.TEST, () -> runScript(container, LocalCIBuildPhase.TEST, "test"));
+            }
 
-            // Start the command and wait for it to complete.
-            final CountDownLatch latch = new CountDownLatch(1);
-            dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ResultCallback.Adapter<>() {
-                @Override
-                public void onComplete() {
-                    latch.countDown();
-                }
+            LocalCIBuildJobDTO buildJob = runPhase(LocalCIBuildPhase.EXTRACTION, () -> {
+                long extractionStartedNanos = System.nanoTime();
+                runScript(container, LocalCIBuildPhase.EXTRACTION, "collect");
+                LocalCIBuildJobDTO result = extractResults(container, commitHashes.assignment(), commitHashes.test());
+                metrics.record(LocalCIBuildMetrics.Stage.RESULT_COPY, System.nanoTime() - extractionStartedNanos - parseNanos);
+                metrics.record(LocalCIBuildMetrics.Stage.RESULT_PARSE, parseNanos);
+                return result;
             });
 
-            try {
-                // Block until the latch reaches 0 or until the thread is interrupted.
-                latch.await();
-            } catch (InterruptedException e) {
-                throw new IllegalStateException("Interrupted while waiting for command to complete", e);
+            containerReusable = true;
+            return buildJob;
+        } catch (PhaseTimeoutException e) {
+            CommitHashes commitHashes = resolvedCommitHashes.get();
+            return new LocalCIBuildJobDTO(LocalCIBuildStatus.TIMED_OUT, e.getPhase(), commitHashes.assignment(), commitHashes.test(), List.of(), List.of(), List.of());
+        } catch (Exception e) {
+            if (cancelled) {
+                throw new CancellationException("Build job was cancelled");
             }
+            // The build job fails with this exception, LocalCIResultPublisher.publishWhenDone() reports it to Artemis as an internal error.
+            throw new LocalCIException("Error while running build job: " + e.getMessage(), e);
+        } finally {
+            this.container = null;
+            workspaceService.deleteWorkspace(workspaceId);
+            long returnStartedNanos = System.nanoTime();
+            containerPool.returnContainer(container, containerReusable);
+            metrics.recordSince(LocalCIBuildMetrics.Stage.CONTAINER_RETURN, returnStartedNanos);
+            metrics.recordSince(LocalCIBuildMetrics.Stage.TOTAL, buildStartedNanos);
+        }
+    }
 
-            // When Gradle is used as the build tool, the test results are located in /repositories/test-repository/build/test-resuls/test/TEST-*.xml.
-            // When Maven is used as the build tool, the test results are located in /repositories/test-repository/target/surefire-reports/TEST-*.xml.
-            String testResultsPath;
-            if (buildTool == BuildTool.GRADLE) {
-                testResultsPath = "/repositories/test-repository/build/test-results/test";
-            } else if (buildTool == BuildTool.MAVEN) {
-                testResultsPath = "/repositories/test-repository/target/surefire-reports";
-            } else {
-                throw new IllegalStateException("Unknown build tool: " + buildTool);
+    /**
+     * Stops the build job. The build container is killed, so that the worker running the job is freed immediately.
+     */
+    public void cancel() {
+        cancelled = true;
+        LocalCIContainer container = this.container;
+        if (container != null) {
+            containerService.killContainer(container.getId());
+        }
+    }
+
+    // Runs the action and kills the build container if it does not complete within the timeout of the phase. Killing the container ends all execs and copy streams of the
+    // container, which makes the action return or fail.
+    private <T> T runPhase(LocalCIBuildPhase phase, Callable<T> action) throws Exception {
+        Duration timeout = timeouts.forPhase(phase);
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        String containerId = container.getId();
+        long phaseStartedNanos = System.nanoTime();
+        ScheduledFuture<?> watchdog = timeoutScheduler.schedule(() -> {
+            timedOut.set(true);
+            containerService.killContainer(containerId);
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            T result = action.call();
+            if (timedOut.get()) {
+                throw new PhaseTimeoutException(phase);
             }
+            return result;
+        } catch (Exception e) {
+            if (timedOut.get()) {
+                throw new PhaseTimeoutException(phase);
+            }
+            throw e;
+        } finally {
+            watchdog.cancel(false);
+            // The extraction phase is recorded as copying and parsing separately.
+            LocalCIBuildMetrics.Stage stage = switch (phase) {
+                case CLONE -> LocalCIBuildMetrics.Stage.CLONE;
+                case COMPILE -> LocalCIBuildMetrics.Stage.COMPILE;
+                case TEST -> LocalCIBuildMetrics.Stage.TEST;
+                case EXTRACTION -> null;
+            };
+            if (stage != null) {
+                metrics.recordSince(stage, phaseStartedNanos);
+            }
+        }
+    }
 
-            // Get an input stream of the test result files.
-            TarArchiveInputStream tarInputStream = new TarArchiveInputStream(
-                    dockerClient
-                            .copyArchiveFromContainerCmd(container.getId(), testResultsPath)
-                            .exec());
-
-            TarArchiveInputStream assignmentRepoTarInputStream = new TarArchiveInputStream(dockerClient.copyArchiveFromContainerCmd(container.getId(), "/repositories/assignment-repository/.git/refs/heads/main").exec());
-            assignmentRepoTarInputStream.getNextTarEntry();
-            String assignmentRepoCommitHash = IOUtils.toString(assignmentRepoTarInputStream, StandardCharsets.UTF_8).replace("\n", "");
-            assignmentRepoTarInputStream.close();
-
-            TarArchiveInputStream testRepoTarInputStream = new TarArchiveInputStream(dockerClient.copyArchiveFromContainerCmd(container.getId(), "/repositories/test-repository/.git/refs/heads/main").exec());
-            testRepoTarInputStream.getNextTarEntry();
-            String testRepoCommitHash = IOUtils.toString(testRepoTarInputStream, StandardCharsets.UTF_8).replace("\n", "");
-            testRepoTarInputStream.close();
-
-            // Create a file "results_extracted.txt" in the root directory of the container to indicate that the test results have been extracted. The container's main process is waiting for this file to appear and then stops the main process, thus stopping and removing the container.
-            ExecCreateCmdResponse createResultsExtractedFileCmdResponse = dockerClient.execCreateCmd(container.getId()).withCmd("touch", "results_extracted.txt").exec();
-            dockerClient.execStartCmd(createResultsExtractedFileCmdResponse.getId()).exec(new ResultCallback.Adapter<>());
-
-            ZonedDateTime buildCompletedDate = ZonedDateTime.now();
-            int duration = (int) ChronoUnit.SECONDS.between(buildStartedDate, buildCompletedDate);
-
-            List<LocalCITestCaseDTO> failedTests = new ArrayList<>();
-            List<LocalCITestCaseDTO> successfulTests = new ArrayList<>();
-            List<String> timestamps = new ArrayList<>();
-            boolean isBuildSuccessful = true;
-
-            XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
-            TarArchiveEntry tarEntry;
-            while ((tarEntry = tarInputStream.getNextTarEntry()) != null) {
-                if (!tarEntry.isDirectory() && tarEntry.getName().startsWith(buildTool == BuildTool.GRADLE ? "test" : "surefire-reports" + "/TEST-") && tarEntry.getName().endsWith(".xml")) {
-                    // Read the contents of the tar entry as a string.
-                    String xmlString = IOUtils.toString(tarInputStream, StandardCharsets.UTF_8);
-
-                    // Create an XML stream reader for the string.
-                    XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(new StringReader(xmlString));
-
-                    // Move to the first start element.
-                    while (xmlStreamReader.hasNext() && !xmlStreamReader.isStartElement()) {
-                        xmlStreamReader.next();
-                    }
-
-                    // Check if the start element is the "testsuite" node.
-                    if (!xmlStreamReader.getLocalName().equals("testsuite")) {
-                        throw new IllegalStateException("Expected testsuite element, but got " + xmlStreamReader.getLocalName());
-                    }
-
-                    // Extract the timestamp attribute from the "testsuite" node.
-                    // TODO: Extract timestamp for maven.
-                    String timestamp = xmlStreamReader.getAttributeValue(null, "timestamp");
-                    timestamps.add(timestamp);
-
-                    // Go through all testcase nodes.
-                    while (xmlStreamReader.hasNext()) {
-                        xmlStreamReader.next();
-
-                        if (xmlStreamReader.isStartElement() && xmlStreamReader.getLocalName().equals("testcase")) {
-                            // Extract the name attribute from the "testcase" node.
-                            String name = xmlStreamReader.getAttributeValue(null, "name");
-
-                            // Check if there is a failure node inside the testcase node.
-                            // Call next() until there is an end element (no failure node exists inside the testcase node) or a start element (failure node exists inside the testcase node).
-                            xmlStreamReader.next();
-                            while (!(xmlStreamReader.isEndElement() || xmlStreamReader.isStartElement())) {
-                                xmlStreamReader.next();
-                            }
-                            if (xmlStreamReader.isStartElement() && xmlStreamReader.getLocalName().equals("failure")) {
-                                // Extract the message attribute from the "failure" node.
-                                // TODO: Extract message for maven.
-                                String message = xmlStreamReader.getAttributeValue(null, "message");
-
-                                // Add the failed test to the list of failed tests.
-                                failedTests.add(new LocalCITestCaseDTO(name, message != null ? List.of(message) : null));
-
-                                // If there is at least one test case with a failure node, the build is not successful.
-                                isBuildSuccessful = false;
-                            } else {
-                                // Add the successful test to the list of successful tests.
-                                successfulTests.add(new LocalCITestCaseDTO(name, null));
-                            }
-                        }
-                    }
-                    // Close the XML stream reader.
-                    xmlStreamReader.close();
-                }
+    // The "sh script.sh <phase> <arguments>" command specified here is run inside the container as an additional process next to the idle main process of the container.
+    // Start the command and wait for it to complete. Its output goes to the build log as it arrives.
+    private long runScript(LocalCIContainer container, LocalCIBuildPhase phase, String scriptPhase, String... arguments) {
+        List<String> command = new ArrayList<>(List.of("sh", "script.sh", scriptPhase));
+        command.addAll(List.of(arguments));
+        return containerService.executeCommand(container.getId(), frame -> buildLog.append(phase, frame.getStreamType() == StreamType.STDERR, frame.getPayload()),
+                command.toArray(String[]::new));
+    }
+
+    private LocalCIBuildJobDTO extractResults(LocalCIContainer container, String assignmentRepoCommitHash, String testRepoCommitHash) throws Exception {
+        // The script collects the test results and the exit code of the build in the directory /results, copy it out of the container in a single call:
+        // results/test-results/TEST-*.xml and results/build-exit-code.
+        // Reads the archive from the Docker socket while parsing, see LocalCIContainerService for why this runs via callBlocking.
+        return containerService.callBlocking(() -> {
+            try (InputStream archive = dockerClient.copyArchiveFromContainerCmd(container.getId(), RESULTS_PATH).exec()) {
+                return readResults(archive, reportParser, assignmentRepoCommitHash, testRepoCommitHash, nanos -> parseNanos += nanos);
+            }
+        });
+    }
+
+    /**
+     * Reads the test results and the exit code of the build from the tar archive of the results directory. The archive is not closed.
+     *
+     * @param parseTime receives the time spent parsing each report in nanoseconds
+     */
+    static LocalCIBuildJobDTO readResults(InputStream archive, JUnitReportParser reportParser, String assignmentRepoCommitHash, String testRepoCommitHash,
+            LongConsumer parseTime) throws IOException, XMLStreamException {
+        List<LocalCITestCaseDTO> failedTests = new ArrayList<>();
+        List<LocalCITestCaseDTO> successfulTests = new ArrayList<>();
+        List<LocalCITestCaseDTO> skippedTests = new ArrayList<>();
+        boolean isBuildSuccessful = true;
+        String buildExitCode = null;
+
+        TarArchiveInputStream tarInputStream = new TarArchiveInputStream(archive);
+        TarArchiveEntry tarEntry;
+        while ((tarEntry = tarInputStream.getNextTarEntry()) != null) {
+            if (tarEntry.isDirectory()) {
+                continue;
+            }
+            String name = tarEntry.getName();
+            if (name.startsWith("results/test-results/TEST-") && name.endsWith(".xml")) {
+                // Parse the report directly from the tar entry.
+                long parseStartedNanos = System.nanoTime();
+                JUnitReportParser.TestSuite testSuite = reportParser.parse(tarInputStream);
+                parseTime.accept(System.nanoTime() - parseStartedNanos);
+                failedTests.addAll(testSuite.failedTests());
+                successfulTests.addAll(testSuite.successfulTests());
+                skippedTests.addAll(testSuite.skippedTests());
+
+                // If there is at least one failed test case or one test case with an error, the build is not successful.
+                isBuildSuccessful &= testSuite.isSuccessful();
+            } else if (name.equals("results/build-exit-code")) {
+                buildExitCode = readMetadata(tarInputStream);
             }
+        }
 
-            // Find the latest timestamp found in the test results.
+        // E.g. the code of the student does not compile, in which case there are no test results at all.
+        isBuildSuccessful &= "0".equals(buildExitCode);
 
-            LocalCIBuildJobDTO buildJob = new LocalCIBuildJobDTO(isBuildSuccessful, assignmentRepoCommitHash, testRepoCommitHash, failedTests, successfulTests);
+        return new LocalCIBuildJobDTO(isBuildSuccessful, assignmentRepoCommitHash, testRepoCommitHash, failedTests, successfulTests, skippedTests);
+    }
 
-            System.out.println(duration);
-            System.out.println(timestamps);
-            System.out.println(buildJob);
+    // The metadata files are small single line text files.
+    private static String readMetadata(TarArchiveInputStream tarInputStream) throws IOException {
+        return IOUtils.toString(tarInputStream, StandardCharsets.UTF_8).strip();
+    }
 
-        } catch (Exception e) {
-            // TODO: Handle exception, i.e. notify Artemis that the build failed because of some internal issue.
-            System.out.println(e.getMessage());
+    private record CommitHashes(String assignment, String test) {
+    }
+
+    private static class PhaseTimeoutException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LocalCIBuildPhase phase;
+
+        PhaseTimeoutException(LocalCIBuildPhase phase) {
+            super("Build phase " + phase + " timed out");
+            this.phase = phase;
+        }
+
+        LocalCIBuildPhase getPhase() {
+            return phase;
         }
     }
 }
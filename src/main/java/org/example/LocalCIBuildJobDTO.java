@@ -6,6 +6,11 @@ public class LocalCIBuildJobDTO {
 
     private boolean isBuildSuccessful;
 
+    private LocalCIBuildStatus buildStatus;
+
+    // Only set if the build timed out.
+    private LocalCIBuildPhase timedOutPhase;
+
     private String commitHashAssignmentRepository;
 
     private String commitHashTestRepository;
@@ -14,12 +19,26 @@ public class LocalCIBuildJobDTO {
 
     private List<LocalCITestCaseDTO> successfulTests;
 
-    public LocalCIBuildJobDTO(boolean isBuildSuccessful, String commitHashAssignmentRepository, String commitHashTestRepository, List<LocalCITestCaseDTO> failedTests, List<LocalCITestCaseDTO> successfulTests) {
-        this.isBuildSuccessful = isBuildSuccessful;
+    private List<LocalCITestCaseDTO> skippedTests;
+
+    // ID of the output of the build in the LocalCIBuildLogStore, null if the output was not stored.
+    private String buildLogId;
+
+    public LocalCIBuildJobDTO(boolean isBuildSuccessful, String commitHashAssignmentRepository, String commitHashTestRepository, List<LocalCITestCaseDTO> failedTests, List<LocalCITestCaseDTO> successfulTests,
+            List<LocalCITestCaseDTO> skippedTests) {
+        this(isBuildSuccessful ? LocalCIBuildStatus.SUCCESSFUL : LocalCIBuildStatus.FAILED, null, commitHashAssignmentRepository, commitHashTestRepository, failedTests, successfulTests, skippedTests);
+    }
+
+    public LocalCIBuildJobDTO(LocalCIBuildStatus buildStatus, LocalCIBuildPhase timedOutPhase, String commitHashAssignmentRepository, String commitHashTestRepository,
+            List<LocalCITestCaseDTO> failedTests, List<LocalCITestCaseDTO> successfulTests, List<LocalCITestCaseDTO> skippedTests) {
+        this.isBuildSuccessful = buildStatus == LocalCIBuildStatus.SUCCESSFUL;
+        this.buildStatus = buildStatus;
+        this.timedOutPhase = timedOutPhase;
         this.commitHashAssignmentRepository = commitHashAssignmentRepository;
         this.commitHashTestRepository = commitHashTestRepository;
         this.failedTests = failedTests;
         this.successfulTests = successfulTests;
+        this.skippedTests = skippedTests;
     }
 
     public boolean isBuildSuccessful() {
@@ -30,6 +49,22 @@ public class LocalCIBuildJobDTO {
         isBuildSuccessful = buildSuccessful;
     }
 
+    public LocalCIBuildStatus getBuildStatus() {
+        return buildStatus;
+    }
+
+    public void setBuildStatus(LocalCIBuildStatus buildStatus) {
+        this.buildStatus = buildStatus;
+    }
+
+    public LocalCIBuildPhase getTimedOutPhase() {
+        return timedOutPhase;
+    }
+
+    public void setTimedOutPhase(LocalCIBuildPhase timedOutPhase) {
+        this.timedOutPhase = timedOutPhase;
+    }
+
     public String getCommitHashAssignmentRepository() {
         return commitHashAssignmentRepository;
     }
@@ -61,4 +96,27 @@ public class LocalCIBuildJobDTO {
     public void setSuccessfulTests(List<LocalCITestCaseDTO> successfulTests) {
         this.successfulTests = successfulTests;
     }
+
+    public List<LocalCITestCaseDTO> getSkippedTests() {
+        return skippedTests;
+    }
+
+    public void setSkippedTests(List<LocalCITestCaseDTO> skippedTests) {
+        this.skippedTests = skippedTests;
+    }
+
+    public String getBuildLogId() {
+        return buildLogId;
+    }
+
+    public void setBuildLogId(String buildLogId) {
+        this.buildLogId = buildLogId;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalCIBuildJobDTO{buildStatus=" + buildStatus + ", timedOutPhase=" + timedOutPhase + ", commitHashAssignmentRepository=" + commitHashAssignmentRepository
+                + ", commitHashTestRepository=" + commitHashTestRepository + ", failedTests=" + failedTests + ", successfulTests=" + successfulTests + ", skippedTests="
+                + skippedTests + ", buildLogId=" + buildLogId + "}";
+    }
 }
@@ -0,0 +1,759 @@
+package org.example;
+
+import com.github.dockerjava.api.DockerClient;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinates the build jobs of one or more {@link LocalCIBuildAgent}s, each of which drives its own Docker host. Queued jobs wait in a
+ * {@link LocalCIBuildScheduler}, the workers of the agents take the next job whenever they are free.
+ * <p>
+ * Agents send heartbeats. If an agent misses its heartbeats, e.g. because its Docker host went down, its running jobs are queued again and run on another agent.
+ */
+public class LocalCIBuildJobExecutor implements AutoCloseable {
+
+    // Memory we assume a single build container (JVM of the build tool plus the tests) needs on the host.
+    private static final long MEMORY_PER_BUILD_BYTES = 2L * 1024 * 1024 * 1024;
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 500;
+
+    private static final Duration DEFAULT_AGING_INTERVAL = Duration.ofMinutes(5);
+
+    private static final Duration DEFAULT_HEARTBEAT_INTERVAL = Duration.ofSeconds(5);
+
+    private static final Duration DEFAULT_HEARTBEAT_TIMEOUT = Duration.ofSeconds(30);
+
+    // How often a build job is started before it fails, a job that keeps taking its agents down should not take down all of them.
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String LOCAL_AGENT_NAME = "local";
+
+    // Course of build jobs submitted without a course, they share the workers like a single course.
+    private static final String DEFAULT_COURSE_ID = "default";
+
+    private final LocalCIResultCache resultCache;
+
+    // Null if the output of the build jobs is not stored.
+    private final LocalCIBuildLogStore buildLogStore;
+
+    private final LocalCIBuildMetrics metrics;
+
+    private final LocalCIGitService gitService = new LocalCIGitService();
+
+    // Builds that are queued or running, keyed like the results in the result cache.
+    private final Map<LocalCIResultCache.Key, InFlightBuildJob> inFlightBuildJobs = new ConcurrentHashMap<>();
+
+    private final JUnitReportParser reportParser = new JUnitReportParser();
+
+    private final LocalCIBuildTimeouts timeouts;
+
+    private final Duration heartbeatTimeout;
+
+    private final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "local-ci-build-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ScheduledExecutorService agentMonitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "local-ci-agent-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LocalCIBuildScheduler<PendingBuildJob> scheduler = new LocalCIBuildScheduler<>(DEFAULT_AGING_INTERVAL);
+
+    // One permit per queued job, idle workers wait for a permit before they ask the scheduler for a job.
+    private final Semaphore queuedBuildJobs = new Semaphore(0);
+
+    private final Map<String, AgentState> agents = new ConcurrentHashMap<>();
+
+    private final Set<PendingBuildJob> runningBuildJobs = ConcurrentHashMap.newKeySet();
+
+    // Records the build jobs so that they survive a restart, null until recover(LocalCIBuildJournal) is called.
+    private volatile LocalCIBuildJournal journal;
+
+    // Permits for running plus queued jobs. Submitting blocks while no permit is available, which pushes back on the caller instead of growing the queue without limit.
+    // Every agent adds permits for its workers.
+    private final Semaphore capacity;
+
+    private volatile boolean closed = false;
+
+    public LocalCIBuildJobExecutor(DockerClient dockerClient, LocalCIDependencyCache dependencyCache, LocalCIWorkspaceService workspaceService,
+            LocalCIResultCache resultCache, LocalCIBuildLogStore buildLogStore) {
+        this(dockerClient, dependencyCache, workspaceService, resultCache, buildLogStore, defaultConcurrentBuilds(), DEFAULT_QUEUE_CAPACITY, false, LocalCIBuildTimeouts.DEFAULT);
+    }
+
+    /**
+     * Creates an executor with a single agent for the given Docker host.
+     *
+     * @param buildLogStore       where the output of the build jobs is stored, or null to not store it
+     * @param gradleDaemonEnabled keep a Gradle daemon running in every Gradle build container and reuse it for later build jobs of the same exercise
+     * @param timeouts            default timeouts of the build phases, can be overridden per build job
+     */
+    public LocalCIBuildJobExecutor(DockerClient dockerClient, LocalCIDependencyCache dependencyCache, LocalCIWorkspaceService workspaceService,
+            LocalCIResultCache resultCache, LocalCIBuildLogStore buildLogStore, int concurrentBuilds, int queueCapacity, boolean gradleDaemonEnabled,
+            LocalCIBuildTimeouts timeouts) {
+        this(resultCache, buildLogStore, queueCapacity, timeouts, DEFAULT_HEARTBEAT_TIMEOUT, new LocalCIBuildMetrics());
+        addAgent(new LocalCIBuildAgent(LOCAL_AGENT_NAME, dockerClient, dependencyCache, workspaceService, concurrentBuilds, gradleDaemonEnabled, DEFAULT_HEARTBEAT_INTERVAL,
+                metrics, LocalCIThreadMode.PLATFORM));
+    }
+
+    /**
+     * Creates an executor without agents, see {@link #addAgent(LocalCIBuildAgent)}. Submitted jobs stay queued until an agent is added.
+     *
+     * @param buildLogStore    where the output of the build jobs is stored, or null to not store it
+     * @param heartbeatTimeout how long an agent may miss its heartbeats before its build jobs are moved to other agents
+     * @param metrics          where the durations of the stages of the build jobs are recorded, pass the same instance to the agents
+     */
+    public LocalCIBuildJobExecutor(LocalCIResultCache resultCache, LocalCIBuildLogStore buildLogStore, int queueCapacity, LocalCIBuildTimeouts timeouts,
+            Duration heartbeatTimeout, LocalCIBuildMetrics metrics) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+        }
+        this.resultCache = resultCache;
+        this.buildLogStore = buildLogStore;
+        this.metrics = metrics;
+        this.timeouts = timeouts;
+        this.heartbeatTimeout = heartbeatTimeout;
+        this.capacity = new Semaphore(queueCapacity);
+        long checkInterval = Math.max(1, heartbeatTimeout.toMillis() / 3);
+        agentMonitor.scheduleAtFixedRate(this::checkAgents, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds an agent and starts its workers. The agent is closed together with the executor.
+     */
+    public void addAgent(LocalCIBuildAgent agent) {
+        if (agents.putIfAbsent(agent.getName(), new AgentState(agent)) != null) {
+            throw new IllegalArgumentException("Agent " + agent.getName() + " already exists");
+        }
+        capacity.release(agent.getConcurrentBuilds());
+        agent.start(this);
+    }
+
+    /**
+     * Queues a student push with the default timeouts and the default resource profile of the build tool. Blocks while the executor is at capacity.
+     *
+     * @see #submitBuildJob(String, BuildTool, Path, Path, Path, LocalCIBuildTimeouts, LocalCIResourceProfile, LocalCIBuildPriority, String, LocalCIBuildLogListener)
+     */
+    public CompletableFuture<LocalCIBuildJobDTO> submitBuildJob(BuildTool buildTool, Path assignmentRepositoryPath, Path testRepositoryPath, Path scriptPath) throws InterruptedException {
+        return submitBuildJob(null, buildTool, assignmentRepositoryPath, testRepositoryPath, scriptPath);
+    }
+
+    /**
+     * Queues a student push with the default timeouts and the default resource profile of the build tool. Blocks while the executor is at capacity.
+     *
+     * @see #submitBuildJob(String, BuildTool, Path, Path, Path, LocalCIBuildTimeouts, LocalCIResourceProfile, LocalCIBuildPriority, String, LocalCIBuildLogListener)
+     */
+    public CompletableFuture<LocalCIBuildJobDTO> submitBuildJob(String submissionId, BuildTool buildTool, Path assignmentRepositoryPath, Path testRepositoryPath,
+            Path scriptPath) throws InterruptedException {
+        return submitBuildJob(submissionId, buildTool, assignmentRepositoryPath, testRepositoryPath, scriptPath, timeouts, LocalCIResourceProfile.forBuildTool(buildTool),
+                LocalCIBuildPriority.STUDENT_PUSH, DEFAULT_COURSE_ID, null);
+    }
+
+    /**
+     * Queues a build job. Blocks while the executor is at capacity.
+     * Cancelling the returned future removes the job from the queue, or kills its build container if it is already running.
+     * If the same commits were already built with the same build tool and image, the future is completed immediately with the cached result, unless the priority
+     * is {@link LocalCIBuildPriority#MANUAL} or {@link LocalCIBuildPriority#BULK_RERUN}. The result of the new build then replaces the cached one.
+     * If they are being built right now, e.g. because a push was delivered twice, the future is attached to the running build instead of starting another one. A queued
+     * build is moved to the priority of the new submission if that is more urgent.
+     *
+     * @param submissionId identifies the submission among the {@link #recover(LocalCIBuildJournal) recovered} build jobs after a restart, or null
+     * @param priority     the priority class of the job, see {@link LocalCIBuildScheduler}
+     * @param courseId     the course the exercise belongs to, the workers are shared fairly between the courses and the exercises within a course
+     * @param logListener  receives the output of the build while it is running, or null. If the result is taken from the cache, the listener is closed right away
+     * @return a future that completes with the result of the build or exceptionally with a {@link LocalCIException}
+     * @throws InterruptedException     if the caller is interrupted while waiting for a free slot
+     * @throws IllegalArgumentException if anything but the submission ID or the log listener is null
+     */
+    public CompletableFuture<LocalCIBuildJobDTO> submitBuildJob(String submissionId, BuildTool buildTool, Path assignmentRepositoryPath, Path testRepositoryPath,
+            Path scriptPath, LocalCIBuildTimeouts timeouts, LocalCIResourceProfile resourceProfile, LocalCIBuildPriority priority, String courseId,
+            LocalCIBuildLogListener logListener) throws InterruptedException {
+        LocalCIBuildJobRequest request = new LocalCIBuildJobRequest(submissionId, buildTool, assignmentRepositoryPath, testRepositoryPath, scriptPath, timeouts,
+                resourceProfile, priority, courseId);
+        return submit(request, UUID.randomUUID().toString(), 0, List.of(), logListener);
+    }
+
+    /**
+     * @param buildJobId            the ID of the build job, recovered build jobs keep their ID
+     * @param attempts              the number of attempts before a restart
+     * @param attachedSubmissionIds further submissions waiting for a recovered build job
+     */
+    private CompletableFuture<LocalCIBuildJobDTO> submit(LocalCIBuildJobRequest request, String buildJobId, int attempts, List<String> attachedSubmissionIds,
+            LocalCIBuildLogListener logListener) throws InterruptedException {
+        BuildTool buildTool = request.buildTool();
+        String imageId = resolveImageId();
+        LocalCIResultCache.Key cacheKey = resolveResultCacheKey(buildTool, request.assignmentRepositoryPath(), request.testRepositoryPath(), imageId);
+        if (cacheKey == null) {
+            PendingBuildJob pendingBuildJob = startBuildJob(request, buildJobId, attempts, imageId, () -> {
+            });
+            subscribeToBuildLog(pendingBuildJob, logListener);
+            return pendingBuildJob.future;
+        }
+
+        // An instructor who triggers a build, or re-runs all submissions, wants the submission to be built again, e.g. after a problem of the CI.
+        LocalCIBuildJobDTO cachedResult = forcesRebuild(request.priority()) ? null : resultCache.get(cacheKey);
+        if (cachedResult != null) {
+            if (logListener != null) {
+                logListener.onClose();
+            }
+            journalFinished(buildJobId);
+            return CompletableFuture.completedFuture(cachedResult);
+        }
+
+        InFlightBuildJob inFlightBuildJob = new InFlightBuildJob();
+        InFlightBuildJob existingBuildJob = inFlightBuildJobs.putIfAbsent(cacheKey, inFlightBuildJob);
+        if (existingBuildJob != null) {
+            CompletableFuture<LocalCIBuildJobDTO> subscription = existingBuildJob.subscribe();
+            LocalCIBuildScheduler.Entry<PendingBuildJob> entry = existingBuildJob.getEntry();
+            if (entry != null) {
+                scheduler.promote(entry, request.priority());
+                subscribeToBuildLog(entry.getJob(), logListener);
+                attachSubmissions(entry.getJob().id, request, attachedSubmissionIds);
+                // A recovered build job is replaced by the running one, the submissions waiting for it are now waiting for the running one.
+                journalFinished(buildJobId);
+            } else if (logListener != null) {
+                // The build is just being started, its output is not available for this submission.
+                logListener.onClose();
+            }
+            return subscription;
+        }
+        // Subscribe before starting, the build is cancelled as soon as it has no subscribers left.
+        CompletableFuture<LocalCIBuildJobDTO> subscription = inFlightBuildJob.subscribe();
+        try {
+            // The result is in the result cache before the build stops being in flight, so that later submissions always find one of the two.
+            PendingBuildJob pendingBuildJob = startBuildJob(request, buildJobId, attempts, imageId, () -> inFlightBuildJobs.remove(cacheKey, inFlightBuildJob));
+            inFlightBuildJob.start(pendingBuildJob.future, pendingBuildJob.entry);
+            subscribeToBuildLog(pendingBuildJob, logListener);
+        } catch (InterruptedException | RuntimeException e) {
+            inFlightBuildJobs.remove(cacheKey, inFlightBuildJob);
+            inFlightBuildJob.fail(e);
+            throw e;
+        }
+        return subscription;
+    }
+
+    private static boolean forcesRebuild(LocalCIBuildPriority priority) {
+        return priority == LocalCIBuildPriority.MANUAL || priority == LocalCIBuildPriority.BULK_RERUN;
+    }
+
+    private PendingBuildJob startBuildJob(LocalCIBuildJobRequest request, String buildJobId, int attempts, String imageId, Runnable afterCompletion)
+            throws InterruptedException {
+        if (closed) {
+            throw new LocalCIException("Executor is closed");
+        }
+        capacity.acquire();
+        PendingBuildJob pendingBuildJob = new PendingBuildJob(buildJobId, request, imageId, attempts);
+        LocalCIBuildJournal journal = this.journal;
+        if (journal != null) {
+            try {
+                // Before the job can run, so that every start and finish refers to a recorded job.
+                journal.submitted(buildJobId, request);
+            } catch (RuntimeException e) {
+                // The job never gets queued, so nothing else would release its slot.
+                capacity.release();
+                throw e;
+            }
+        }
+        if (buildLogStore != null) {
+            // Only creates its file once the job produces output, so queued jobs do not hold open files.
+            pendingBuildJob.buildLog.subscribe(buildLogStore.openWriter(pendingBuildJob.id));
+        }
+        CompletableFuture<LocalCIBuildJobDTO> future = pendingBuildJob.future;
+        future.whenComplete((result, throwable) -> {
+            capacity.release();
+            // E.g. cancelled or failed, then the log was not closed by the agent.
+            pendingBuildJob.buildLog.close();
+            if (future.isCancelled()) {
+                scheduler.remove(pendingBuildJob.entry);
+                LocalCIBuildJob buildJob = pendingBuildJob.getBuildJob();
+                if (buildJob != null) {
+                    buildJob.cancel();
+                }
+            } else if (result != null && pendingBuildJob.imageId != null && result.getCommitHashAssignmentRepository() != null
+                    && result.getCommitHashTestRepository() != null) {
+                // Use the commits that were actually built, the branches might have moved since the job was submitted.
+                resultCache.put(new LocalCIResultCache.Key(result.getCommitHashAssignmentRepository(), result.getCommitHashTestRepository(), request.buildTool(),
+                        pendingBuildJob.imageId), result);
+            }
+            // Jobs cancelled because the executor is closed run again after the restart.
+            if (!(closed && future.isCancelled())) {
+                journalFinished(pendingBuildJob.id);
+            }
+            afterCompletion.run();
+        });
+        queue(pendingBuildJob);
+        return pendingBuildJob;
+    }
+
+    private void attachSubmissions(String buildJobId, LocalCIBuildJobRequest request, List<String> attachedSubmissionIds) {
+        LocalCIBuildJournal journal = this.journal;
+        if (journal == null) {
+            return;
+        }
+        if (request.submissionId() != null) {
+            journal.attached(buildJobId, request.submissionId());
+        }
+        for (String submissionId : attachedSubmissionIds) {
+            journal.attached(buildJobId, submissionId);
+        }
+    }
+
+    private void journalFinished(String buildJobId) {
+        LocalCIBuildJournal journal = this.journal;
+        if (journal != null) {
+            journal.finished(buildJobId);
+        }
+    }
+
+    private static void subscribeToBuildLog(PendingBuildJob pendingBuildJob, LocalCIBuildLogListener logListener) {
+        if (logListener != null) {
+            pendingBuildJob.buildLog.subscribe(logListener);
+        }
+    }
+
+    private void queue(PendingBuildJob pendingBuildJob) {
+        scheduler.add(pendingBuildJob.entry);
+        queuedBuildJobs.release();
+    }
+
+    /**
+     * Runs the next build job on the given agent, called by the workers of the agent. Returns without running a job if no job is queued within the timeout or if
+     * the agent is considered lost.
+     */
+    void runNextBuildJob(LocalCIBuildAgent agent, Duration timeout) throws InterruptedException {
+        AgentState agentState = agents.get(agent.getName());
+        if (agentState == null || !agentState.alive) {
+            Thread.sleep(timeout.toMillis());
+            return;
+        }
+        if (!queuedBuildJobs.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        // There is at least one permit per queued job, so the queue may be empty if jobs were cancelled in the meantime.
+        LocalCIBuildScheduler.Entry<PendingBuildJob> entry = scheduler.poll();
+        if (entry == null) {
+            return;
+        }
+        // Jobs that were queued again after losing their agent include the time of the lost attempt.
+        metrics.recordSince(LocalCIBuildMetrics.Stage.QUEUE_WAIT, entry.getQueuedAtNanos());
+        PendingBuildJob pendingBuildJob = entry.getJob();
+        LocalCIBuildJobRequest request = pendingBuildJob.request;
+        LocalCIBuildJob buildJob = new LocalCIBuildJob(agent.getContainerService(), agent.getContainerPool(), agent.getWorkspaceService(), gitService, reportParser,
+                timeoutScheduler, request.buildTool(), request.assignmentRepositoryPath(), request.testRepositoryPath(), request.scriptPath(), request.timeouts(),
+                request.resourceProfile(), pendingBuildJob.buildLog, metrics);
+        int attempt = pendingBuildJob.start(agent, buildJob);
+        if (attempt < 0) {
+            // Cancelled after the scheduler selected it.
+            return;
+        }
+        LocalCIBuildJournal journal = this.journal;
+        if (journal != null) {
+            journal.started(pendingBuildJob.id, agent.getName(), attempt);
+        }
+        runningBuildJobs.add(pendingBuildJob);
+        agent.buildJobStarted();
+        LocalCIBuildJobDTO result = null;
+        RuntimeException exception = null;
+        try {
+            result = buildJob.runBuildJob();
+        } catch (RuntimeException e) {
+            exception = e;
+        } finally {
+            agent.buildJobFinished();
+        }
+        // The job may have been moved to another agent in the meantime, e.g. because this agent missed its heartbeats while the job was running.
+        if (!pendingBuildJob.finish(attempt)) {
+            return;
+        }
+        runningBuildJobs.remove(pendingBuildJob);
+        // Close the log first, so that the stored log exists as soon as the result is visible.
+        pendingBuildJob.buildLog.close();
+        if (exception != null) {
+            pendingBuildJob.future.completeExceptionally(exception);
+        } else {
+            if (buildLogStore != null) {
+                // Cached copies of the result refer to the same log.
+                result.setBuildLogId(pendingBuildJob.id);
+            }
+            pendingBuildJob.future.complete(result);
+        }
+    }
+
+    /**
+     * Records that the agent is alive, called by the agent.
+     */
+    void heartbeat(LocalCIBuildAgent agent) {
+        AgentState agentState = agents.get(agent.getName());
+        if (agentState == null) {
+            return;
+        }
+        agentState.lastHeartbeatNanos = System.nanoTime();
+        if (!agentState.alive) {
+            System.out.println("Agent " + agent.getName() + " is back");
+            agentState.alive = true;
+        }
+    }
+
+    private void checkAgents() {
+        long now = System.nanoTime();
+        for (AgentState agentState : agents.values()) {
+            if (agentState.alive && now - agentState.lastHeartbeatNanos > heartbeatTimeout.toNanos()) {
+                agentState.alive = false;
+                System.out.println("Agent " + agentState.agent.getName() + " missed its heartbeats, moving its build jobs to other agents");
+                requeueBuildJobs(agentState.agent);
+            }
+        }
+    }
+
+    private void requeueBuildJobs(LocalCIBuildAgent agent) {
+        for (PendingBuildJob pendingBuildJob : runningBuildJobs) {
+            LocalCIBuildJob buildJob = pendingBuildJob.abandon(agent);
+            if (buildJob == null) {
+                continue;
+            }
+            runningBuildJobs.remove(pendingBuildJob);
+            try {
+                // Free the container if the Docker host is still reachable at all, the result of the job is ignored anyway.
+                buildJob.cancel();
+            } catch (RuntimeException e) {
+                System.out.println("Could not cancel build job on agent " + agent.getName() + ": " + e.getMessage());
+            }
+            if (pendingBuildJob.attempts >= MAX_ATTEMPTS) {
+                pendingBuildJob.future.completeExceptionally(new LocalCIException("Build job was lost together with its agent " + MAX_ATTEMPTS + " times"));
+            } else {
+                queue(pendingBuildJob);
+            }
+        }
+    }
+
+    private String resolveImageId() {
+        for (AgentState agentState : agents.values()) {
+            if (!agentState.alive) {
+                continue;
+            }
+            try {
+                return agentState.agent.getContainerService().getImageId(LocalCIContainerPool.DEFAULT_IMAGE);
+            } catch (RuntimeException e) {
+                // E.g. the image was not pulled on this host yet.
+            }
+        }
+        // The result of the build cannot be cached then.
+        return null;
+    }
+
+    // Looks up the commits in the bare repositories, which is much cheaper than checking them out.
+    private LocalCIResultCache.Key resolveResultCacheKey(BuildTool buildTool, Path assignmentRepositoryPath, Path testRepositoryPath, String imageId) {
+        if (imageId == null) {
+            return null;
+        }
+        try {
+            String assignmentCommitHash = gitService.resolveCommitHash(assignmentRepositoryPath);
+            String testCommitHash = gitService.resolveCommitHash(testRepositoryPath);
+            return new LocalCIResultCache.Key(assignmentCommitHash, testCommitHash, buildTool, imageId);
+        } catch (IOException e) {
+            // The build job runs into the same problem and reports it.
+            return null;
+        }
+    }
+
+    /**
+     * Queues the build jobs that were not finished when the executor stopped the last time, e.g. because the process crashed, and records the build jobs in the
+     * journal from now on. Call this once after adding the agents and before submitting new build jobs. Blocks while the executor is at capacity.
+     * <p>
+     * The workspaces left behind are deleted, the containers left behind are removed by the agents when they start. A build job that already started
+     * {@value #MAX_ATTEMPTS} times fails instead of running again, it probably crashed the executor.
+     *
+     * @return the futures of the recovered build jobs by submission ID, or by build job ID for build jobs submitted without one. Submissions that were attached to
+     *         another submission of the same commits share its future
+     */
+    public Map<String, CompletableFuture<LocalCIBuildJobDTO>> recover(LocalCIBuildJournal journal) throws InterruptedException {
+        if (this.journal != null) {
+            throw new IllegalStateException("Build jobs were already recovered");
+        }
+        this.journal = journal;
+        // Agents on the same host share the workspace service.
+        Set<LocalCIWorkspaceService> workspaceServices = new HashSet<>();
+        for (AgentState agentState : agents.values()) {
+            if (workspaceServices.add(agentState.agent.getWorkspaceService())) {
+                int deleted = agentState.agent.getWorkspaceService().deleteAllWorkspaces();
+                if (deleted > 0) {
+                    System.out.println("Deleted " + deleted + " workspaces left behind by the last run");
+                }
+            }
+        }
+
+        Map<String, CompletableFuture<LocalCIBuildJobDTO>> futures = new HashMap<>();
+        for (LocalCIBuildJournal.RecoveredBuildJob recoveredBuildJob : journal.getRecoveredBuildJobs()) {
+            LocalCIBuildJobRequest request = recoveredBuildJob.request();
+            CompletableFuture<LocalCIBuildJobDTO> future;
+            if (recoveredBuildJob.attempts() >= MAX_ATTEMPTS) {
+                System.out.println("Build job " + recoveredBuildJob.id() + " was interrupted " + recoveredBuildJob.attempts() + " times, last on agent "
+                        + recoveredBuildJob.lastAgentName() + ", not running it again");
+                journal.finished(recoveredBuildJob.id());
+                future = CompletableFuture.failedFuture(new LocalCIException("Build job was interrupted " + MAX_ATTEMPTS + " times"));
+            } else {
+                future = submit(request, recoveredBuildJob.id(), recoveredBuildJob.attempts(), recoveredBuildJob.attachedSubmissionIds(), null);
+            }
+            futures.put(request.submissionId() != null ? request.submissionId() : recoveredBuildJob.id(), future);
+            for (String submissionId : recoveredBuildJob.attachedSubmissionIds()) {
+                futures.put(submissionId, future);
+            }
+        }
+        if (!futures.isEmpty()) {
+            System.out.println("Recovered " + journal.getRecoveredBuildJobs().size() + " build jobs");
+        }
+        return futures;
+    }
+
+    /**
+     * Starts idle containers for the given build tool and exercise ahead of time on all agents, e.g. before a deadline.
+     */
+    public void warmUp(BuildTool buildTool, Path testRepositoryPath, LocalCIResourceProfile resourceProfile) {
+        for (AgentState agentState : agents.values()) {
+            agentState.agent.getContainerPool().warmUp(LocalCIContainerPool.DEFAULT_IMAGE, buildTool, testRepositoryPath.toString(), resourceProfile);
+        }
+    }
+
+    public int getQueuedBuildJobs() {
+        return scheduler.size();
+    }
+
+    /**
+     * Returns the number of queued jobs and their waiting times per priority class.
+     */
+    public Map<LocalCIBuildPriority, LocalCIBuildScheduler.Statistics> getQueueStatistics() {
+        return scheduler.getStatistics();
+    }
+
+    /**
+     * Sets the share of the workers a course gets relative to the other courses, e.g. to give a large course more workers than a small one.
+     */
+    public void setCourseWeight(String courseId, int weight) {
+        scheduler.setCourseWeight(courseId, weight);
+    }
+
+    public LocalCIBuildMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getRunningBuildJobs() {
+        return agents.values().stream().mapToInt(agentState -> agentState.agent.getRunningBuildJobs()).sum();
+    }
+
+    /**
+     * Stops accepting build jobs and waits up to a minute for the queued and running jobs to finish. Jobs that are still queued afterwards fail, or are cancelled
+     * and stay in the journal to run after the restart if build jobs are {@link #recover(LocalCIBuildJournal) recorded}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        try {
+            while ((scheduler.size() > 0 || !runningBuildJobs.isEmpty()) && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (AgentState agentState : agents.values()) {
+            agentState.agent.close();
+        }
+        LocalCIBuildScheduler.Entry<PendingBuildJob> entry;
+        while ((entry = scheduler.poll()) != null) {
+            if (journal != null) {
+                entry.getJob().future.cancel(false);
+            } else {
+                entry.getJob().future.completeExceptionally(new LocalCIException("Executor was closed"));
+            }
+        }
+        agentMonitor.shutdownNow();
+        timeoutScheduler.shutdownNow();
+    }
+
+    // Use one build per core, but not more builds than fit into the host memory.
+    static int defaultConcurrentBuilds() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+        if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean) {
+            long totalMemory = ((com.sun.management.OperatingSystemMXBean) operatingSystem).getTotalMemorySize();
+            return (int) Math.max(1, Math.min(cores, totalMemory / MEMORY_PER_BUILD_BYTES));
+        }
+        return cores;
+    }
+
+    /**
+     * A build shared by all submissions of the same commits. Every submission gets its own future, so that one submitter cancelling does not cancel the build for the
+     * others. The build itself is only cancelled once all submitters cancelled.
+     */
+    private static class InFlightBuildJob {
+
+        private final CompletableFuture<LocalCIBuildJobDTO> result = new CompletableFuture<>();
+
+        private CompletableFuture<LocalCIBuildJobDTO> buildJob;
+
+        private LocalCIBuildScheduler.Entry<PendingBuildJob> entry;
+
+        private int subscribers = 0;
+
+        synchronized CompletableFuture<LocalCIBuildJobDTO> subscribe() {
+            subscribers++;
+            CompletableFuture<LocalCIBuildJobDTO> subscription = result.copy();
+            subscription.whenComplete((dto, throwable) -> {
+                if (subscription.isCancelled()) {
+                    unsubscribe();
+                }
+            });
+            return subscription;
+        }
+
+        void start(CompletableFuture<LocalCIBuildJobDTO> buildJob, LocalCIBuildScheduler.Entry<PendingBuildJob> entry) {
+            boolean unsubscribed;
+            synchronized (this) {
+                this.buildJob = buildJob;
+                this.entry = entry;
+                unsubscribed = subscribers == 0;
+            }
+            buildJob.whenComplete((dto, throwable) -> {
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(dto);
+                }
+            });
+            // Outside of the monitor, cancelling kills the build container, which would pin a virtual thread to its carrier while waiting for Docker.
+            if (unsubscribed) {
+                buildJob.cancel(true);
+            }
+        }
+
+        synchronized LocalCIBuildScheduler.Entry<PendingBuildJob> getEntry() {
+            return entry;
+        }
+
+        void fail(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        private void unsubscribe() {
+            CompletableFuture<LocalCIBuildJobDTO> unsubscribedBuildJob;
+            synchronized (this) {
+                subscribers--;
+                unsubscribedBuildJob = subscribers == 0 ? buildJob : null;
+            }
+            if (unsubscribedBuildJob != null) {
+                unsubscribedBuildJob.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * A submitted build job from being queued until its future is completed. The job may be started several times, if the agents running it are lost.
+     */
+    private static class PendingBuildJob {
+
+        private final String id;
+
+        private final LocalCIBuildJobRequest request;
+
+        // The image the result is cached for.
+        private final String imageId;
+
+        private final CompletableFuture<LocalCIBuildJobDTO> future = new CompletableFuture<>();
+
+        private final LocalCIBuildScheduler.Entry<PendingBuildJob> entry;
+
+        // Shared by all attempts, the output of an abandoned attempt is followed by the output of the next one.
+        private final LocalCIBuildLog buildLog = new LocalCIBuildLog(LocalCIBuildLog.DEFAULT_BUFFER_SIZE_BYTES);
+
+        private int attempts;
+
+        // The agent running the current attempt and its build job, null while queued.
+        private LocalCIBuildAgent agent;
+
+        private LocalCIBuildJob buildJob;
+
+        PendingBuildJob(String id, LocalCIBuildJobRequest request, String imageId, int attempts) {
+            this.id = id;
+            this.request = request;
+            this.imageId = imageId;
+            this.attempts = attempts;
+            // The test repository identifies the exercise.
+            this.entry = new LocalCIBuildScheduler.Entry<>(request.priority(), request.courseId(), request.testRepositoryPath().toString(), this);
+        }
+
+        /**
+         * @return the number of the attempt, or -1 if the job was already completed, e.g. cancelled
+         */
+        synchronized int start(LocalCIBuildAgent agent, LocalCIBuildJob buildJob) {
+            if (future.isDone()) {
+                return -1;
+            }
+            this.agent = agent;
+            this.buildJob = buildJob;
+            return ++attempts;
+        }
+
+        /**
+         * @return true if the attempt is still the current one, then its result is the result of the job
+         */
+        synchronized boolean finish(int attempt) {
+            if (attempt != attempts || agent == null) {
+                return false;
+            }
+            agent = null;
+            buildJob = null;
+            return true;
+        }
+
+        /**
+         * Gives up the current attempt if it runs on the given agent.
+         *
+         * @return the build job of the abandoned attempt, or null if the job does not run on the agent
+         */
+        synchronized LocalCIBuildJob abandon(LocalCIBuildAgent agent) {
+            if (this.agent != agent) {
+                return null;
+            }
+            LocalCIBuildJob abandoned = buildJob;
+            this.agent = null;
+            this.buildJob = null;
+            return abandoned;
+        }
+
+        synchronized LocalCIBuildJob getBuildJob() {
+            return buildJob;
+        }
+    }
+
+    private static class AgentState {
+
+        private final LocalCIBuildAgent agent;
+
+        private volatile long lastHeartbeatNanos = System.nanoTime();
+
+        private volatile boolean alive = true;
+
+        AgentState(LocalCIBuildAgent agent) {
+            this.agent = agent;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.example;
+
+import java.nio.file.Path;
+
+/**
+ * Everything needed to run a build job, as submitted to the {@link LocalCIBuildJobExecutor} and recorded in the {@link LocalCIBuildJournal}.
+ *
+ * @param submissionId identifies the build job towards the caller, e.g. the ID of the submission in the LMS, or null
+ */
+record LocalCIBuildJobRequest(String submissionId, BuildTool buildTool, Path assignmentRepositoryPath, Path testRepositoryPath, Path scriptPath,
+        LocalCIBuildTimeouts timeouts, LocalCIResourceProfile resourceProfile, LocalCIBuildPriority priority, String courseId) {
+
+    // Checked before the build job takes a slot of the executor, a request the journal cannot record must not get that far.
+    LocalCIBuildJobRequest {
+        if (buildTool == null || assignmentRepositoryPath == null || testRepositoryPath == null || scriptPath == null || timeouts == null || resourceProfile == null
+                || priority == null || courseId == null) {
+            throw new IllegalArgumentException("Incomplete build job for submission " + submissionId + ": only the submission ID may be null");
+        }
+    }
+}
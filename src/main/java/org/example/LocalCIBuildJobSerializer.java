@@ -0,0 +1,454 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes and reads {@link LocalCIBuildJobDTO}s without building an intermediate object tree, either as JSON or in a compact binary form.
+ * <p>
+ * The JSON has the field names Jackson data binding would derive from the getters, so it can be read by the LMS like any other DTO. The binary form is for
+ * storage and transport between the components of the local CI: strings are length-prefixed UTF-8, numbers and lengths are variable-length integers and enums
+ * are stored by their ordinal, so a version byte guards the format.
+ * <p>
+ * Instances are thread-safe and should be reused, creating a {@link JsonFactory} is expensive. The given streams are never closed.
+ */
+public class LocalCIBuildJobSerializer {
+
+    // "LCIR" followed by the version of the binary format. Increment the version whenever the format or the order of the enum constants changes.
+    private static final int BINARY_MAGIC = 0x4C434952;
+
+    private static final int BINARY_VERSION = 1;
+
+    // Upper bounds for lengths read from the binary form, so that a corrupt file cannot make the reader allocate huge arrays.
+    private static final int MAX_STRING_BYTES = 64 * 1024 * 1024;
+
+    private static final int MAX_LIST_SIZE = 10_000_000;
+
+    // Lists are not allocated with the size read from the stream up front, a corrupt size would otherwise allocate the maximum right away.
+    private static final int INITIAL_LIST_CAPACITY = 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final JsonFactory jsonFactory;
+
+    public LocalCIBuildJobSerializer() {
+        jsonFactory = new JsonFactory();
+        jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        jsonFactory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    }
+
+    public void writeJson(LocalCIBuildJobDTO buildJob, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = createJsonGenerator(outputStream)) {
+            writeJson(buildJob, generator);
+        }
+    }
+
+    /**
+     * Creates a generator to embed build jobs into a larger JSON document with {@link #writeJson(LocalCIBuildJobDTO, JsonGenerator)}. Closing the generator
+     * flushes it, but does not close the stream.
+     */
+    JsonGenerator createJsonGenerator(OutputStream outputStream) throws IOException {
+        return jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
+    }
+
+    /**
+     * Writes the build job as the next value of the generator.
+     */
+    void writeJson(LocalCIBuildJobDTO buildJob, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeBooleanField("buildSuccessful", buildJob.isBuildSuccessful());
+        writeJsonEnum(generator, "buildStatus", buildJob.getBuildStatus());
+        writeJsonEnum(generator, "timedOutPhase", buildJob.getTimedOutPhase());
+        generator.writeStringField("commitHashAssignmentRepository", buildJob.getCommitHashAssignmentRepository());
+        generator.writeStringField("commitHashTestRepository", buildJob.getCommitHashTestRepository());
+        writeJsonTestCases(generator, "failedTests", buildJob.getFailedTests());
+        writeJsonTestCases(generator, "successfulTests", buildJob.getSuccessfulTests());
+        writeJsonTestCases(generator, "skippedTests", buildJob.getSkippedTests());
+        generator.writeStringField("buildLogId", buildJob.getBuildLogId());
+        generator.writeEndObject();
+    }
+
+    private static void writeJsonEnum(JsonGenerator generator, String fieldName, Enum<?> value) throws IOException {
+        generator.writeStringField(fieldName, value != null ? value.name() : null);
+    }
+
+    private static void writeJsonTestCases(JsonGenerator generator, String fieldName, List<LocalCITestCaseDTO> testCases) throws IOException {
+        generator.writeFieldName(fieldName);
+        if (testCases == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartArray();
+        for (LocalCITestCaseDTO testCase : testCases) {
+            generator.writeStartObject();
+            generator.writeStringField("name", testCase.getName());
+            generator.writeStringField("className", testCase.getClassName());
+            writeJsonEnum(generator, "status", testCase.getStatus());
+            generator.writeNumberField("durationMillis", testCase.getDurationMillis());
+            generator.writeFieldName("message");
+            writeJsonStrings(generator, testCase.getMessage());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeJsonStrings(JsonGenerator generator, List<String> values) throws IOException {
+        if (values == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartArray();
+        for (String value : values) {
+            generator.writeString(value);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Reads a build job written by {@link #writeJson}. Unknown fields are skipped, missing fields are null.
+     */
+    public LocalCIBuildJobDTO readJson(InputStream inputStream) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(inputStream)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            Boolean buildSuccessful = null;
+            LocalCIBuildStatus buildStatus = null;
+            LocalCIBuildPhase timedOutPhase = null;
+            String commitHashAssignmentRepository = null;
+            String commitHashTestRepository = null;
+            List<LocalCITestCaseDTO> failedTests = null;
+            List<LocalCITestCaseDTO> successfulTests = null;
+            List<LocalCITestCaseDTO> skippedTests = null;
+            String buildLogId = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (fieldName) {
+                    case "buildSuccessful" -> buildSuccessful = token == JsonToken.VALUE_NULL ? null : parser.getBooleanValue();
+                    case "buildStatus" -> buildStatus = readJsonEnum(parser, LocalCIBuildStatus.class);
+                    case "timedOutPhase" -> timedOutPhase = readJsonEnum(parser, LocalCIBuildPhase.class);
+                    case "commitHashAssignmentRepository" -> commitHashAssignmentRepository = parser.getValueAsString();
+                    case "commitHashTestRepository" -> commitHashTestRepository = parser.getValueAsString();
+                    case "failedTests" -> failedTests = readJsonTestCases(parser);
+                    case "successfulTests" -> successfulTests = readJsonTestCases(parser);
+                    case "skippedTests" -> skippedTests = readJsonTestCases(parser);
+                    case "buildLogId" -> buildLogId = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+            return createBuildJob(buildSuccessful, buildStatus, timedOutPhase, commitHashAssignmentRepository, commitHashTestRepository, failedTests, successfulTests,
+                    skippedTests, buildLogId);
+        }
+    }
+
+    private static <E extends Enum<E>> E readJsonEnum(JsonParser parser, Class<E> type) throws IOException {
+        String name = parser.getValueAsString();
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(parser, "Unknown " + type.getSimpleName() + " " + name, e);
+        }
+    }
+
+    private static List<LocalCITestCaseDTO> readJsonTestCases(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        List<LocalCITestCaseDTO> testCases = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+            String name = null;
+            String className = null;
+            LocalCITestStatus status = null;
+            long durationMillis = 0;
+            List<String> message = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (fieldName) {
+                    case "name" -> name = parser.getValueAsString();
+                    case "className" -> className = parser.getValueAsString();
+                    case "status" -> status = readJsonEnum(parser, LocalCITestStatus.class);
+                    case "durationMillis" -> durationMillis = token == JsonToken.VALUE_NULL ? 0 : parser.getLongValue();
+                    case "message" -> message = readJsonStrings(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+            testCases.add(new LocalCITestCaseDTO(name, className, status, durationMillis, message));
+        }
+        return testCases;
+    }
+
+    private static List<String> readJsonStrings(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(parser.getValueAsString());
+        }
+        return values;
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + ", but got " + actual);
+        }
+    }
+
+    public void writeBinary(LocalCIBuildJobDTO buildJob, OutputStream outputStream) throws IOException {
+        BinaryWriter writer = new BinaryWriter(outputStream);
+        writer.writeInt(BINARY_MAGIC);
+        writer.writeByte(BINARY_VERSION);
+        writer.writeByte(buildJob.isBuildSuccessful() ? 1 : 0);
+        writer.writeEnum(buildJob.getBuildStatus());
+        writer.writeEnum(buildJob.getTimedOutPhase());
+        writer.writeString(buildJob.getCommitHashAssignmentRepository());
+        writer.writeString(buildJob.getCommitHashTestRepository());
+        writer.writeTestCases(buildJob.getFailedTests());
+        writer.writeTestCases(buildJob.getSuccessfulTests());
+        writer.writeTestCases(buildJob.getSkippedTests());
+        writer.writeString(buildJob.getBuildLogId());
+        writer.flush();
+    }
+
+    /**
+     * Reads a build job written by {@link #writeBinary}. Reads exactly the bytes of the build job, so that further data can follow in the stream.
+     *
+     * @throws IOException if the data was written in a different version of the format or is corrupt
+     */
+    public LocalCIBuildJobDTO readBinary(InputStream inputStream) throws IOException {
+        BinaryReader reader = new BinaryReader(inputStream);
+        if (reader.readInt() != BINARY_MAGIC) {
+            throw new IOException("Not a serialized build job");
+        }
+        int version = reader.readByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported version " + version + " of the serialized build job");
+        }
+        boolean buildSuccessful = reader.readByte() != 0;
+        LocalCIBuildStatus buildStatus = reader.readEnum(LocalCIBuildStatus.values());
+        LocalCIBuildPhase timedOutPhase = reader.readEnum(LocalCIBuildPhase.values());
+        String commitHashAssignmentRepository = reader.readString();
+        String commitHashTestRepository = reader.readString();
+        List<LocalCITestCaseDTO> failedTests = reader.readTestCases();
+        List<LocalCITestCaseDTO> successfulTests = reader.readTestCases();
+        List<LocalCITestCaseDTO> skippedTests = reader.readTestCases();
+        String buildLogId = reader.readString();
+        return createBuildJob(buildSuccessful, buildStatus, timedOutPhase, commitHashAssignmentRepository, commitHashTestRepository, failedTests, successfulTests,
+                skippedTests, buildLogId);
+    }
+
+    private static LocalCIBuildJobDTO createBuildJob(Boolean buildSuccessful, LocalCIBuildStatus buildStatus, LocalCIBuildPhase timedOutPhase,
+            String commitHashAssignmentRepository, String commitHashTestRepository, List<LocalCITestCaseDTO> failedTests, List<LocalCITestCaseDTO> successfulTests,
+            List<LocalCITestCaseDTO> skippedTests, String buildLogId) {
+        LocalCIBuildJobDTO buildJob = new LocalCIBuildJobDTO(buildStatus, timedOutPhase, commitHashAssignmentRepository, commitHashTestRepository, failedTests,
+                successfulTests, skippedTests);
+        // The flag is derived from the status by the constructor, but can be set independently.
+        if (buildSuccessful != null) {
+            buildJob.setBuildSuccessful(buildSuccessful);
+        }
+        buildJob.setBuildLogId(buildLogId);
+        return buildJob;
+    }
+
+    // Encodes into its own buffer and writes it to the stream in large chunks, so that unbuffered streams such as files are fine.
+    private static class BinaryWriter {
+
+        private final OutputStream outputStream;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private int position = 0;
+
+        BinaryWriter(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        void writeByte(int value) throws IOException {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeInt(int value) throws IOException {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        // Unsigned LEB128: 7 bits per byte, the highest bit marks that more bytes follow.
+        void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        // Null is written as -1 and encoded as 0, so that the common small values fit into a single byte.
+        void writeEnum(Enum<?> value) throws IOException {
+            writeVarLong(value != null ? value.ordinal() + 1 : 0);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            writeBytes(bytes);
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - position) {
+                flushBuffer();
+                if (bytes.length > buffer.length) {
+                    outputStream.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeStrings(List<String> values) throws IOException {
+            if (values == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(values.size() + 1L);
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        void writeTestCases(List<LocalCITestCaseDTO> testCases) throws IOException {
+            if (testCases == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(testCases.size() + 1L);
+            for (LocalCITestCaseDTO testCase : testCases) {
+                writeString(testCase.getName());
+                writeString(testCase.getClassName());
+                writeEnum(testCase.getStatus());
+                writeVarLong(testCase.getDurationMillis());
+                writeStrings(testCase.getMessage());
+            }
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            outputStream.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            outputStream.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private static class BinaryReader {
+
+        private final DataInputStream inputStream;
+
+        BinaryReader(InputStream inputStream) {
+            // No buffer of its own, it would read past the end of the build job. Pass a buffered stream when reading from a file.
+            this.inputStream = new DataInputStream(inputStream);
+        }
+
+        int readByte() throws IOException {
+            return inputStream.readUnsignedByte();
+        }
+
+        int readInt() throws IOException {
+            return inputStream.readInt();
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable-length integer");
+        }
+
+        // Returns the length encoded with +1, or -1 for null.
+        int readLength(int max) throws IOException {
+            long encoded = readVarLong();
+            if (encoded < 0 || encoded - 1 > max) {
+                throw new IOException("Invalid length " + (encoded - 1));
+            }
+            return (int) (encoded - 1);
+        }
+
+        <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+            int ordinal = readLength(values.length - 1);
+            return ordinal < 0 ? null : values[ordinal];
+        }
+
+        String readString() throws IOException {
+            int length = readLength(MAX_STRING_BYTES);
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            inputStream.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        List<String> readStrings() throws IOException {
+            int size = readLength(MAX_LIST_SIZE);
+            if (size < 0) {
+                return null;
+            }
+            List<String> values = new ArrayList<>(Math.min(size, INITIAL_LIST_CAPACITY));
+            for (int i = 0; i < size; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        List<LocalCITestCaseDTO> readTestCases() throws IOException {
+            int size = readLength(MAX_LIST_SIZE);
+            if (size < 0) {
+                return null;
+            }
+            List<LocalCITestCaseDTO> testCases = new ArrayList<>(Math.min(size, INITIAL_LIST_CAPACITY));
+            for (int i = 0; i < size; i++) {
+                String name = readString();
+                String className = readString();
+                LocalCITestStatus status = readEnum(LocalCITestStatus.values());
+                long durationMillis = readVarLong();
+                List<String> message = readStrings();
+                testCases.add(new LocalCITestCaseDTO(name, className, status, durationMillis, message));
+            }
+            return testCases;
+        }
+    }
+}
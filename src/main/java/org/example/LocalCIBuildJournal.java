@@ -0,0 +1,384 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file recording the build jobs of a {@link LocalCIBuildJobExecutor}: when they are submitted, which further submissions were attached to them,
+ * when an attempt starts on an agent and when they are finished. After a crash or restart, the build jobs that were not finished are read back and queued again,
+ * see {@link LocalCIBuildJobExecutor#recover(LocalCIBuildJournal)}.
+ * <p>
+ * Submissions are forced to disk before the build job is queued, the other records are not: after a crash a finished build job may run again, which the
+ * result delivery has to tolerate anyway. Every record carries a checksum, a record cut off by a crash ends the journal. Records that are intact but cannot be
+ * read, e.g. with a build tool that no longer exists, are skipped. The journal is rewritten with only the
+ * unfinished build jobs when it is opened and whenever it has grown too large.
+ */
+public class LocalCIBuildJournal implements AutoCloseable {
+
+    private static final byte RECORD_SUBMITTED = 1;
+
+    private static final byte RECORD_ATTACHED = 2;
+
+    private static final byte RECORD_STARTED = 3;
+
+    private static final byte RECORD_FINISHED = 4;
+
+    private static final long COMPACTION_THRESHOLD_BYTES = 16L * 1024 * 1024;
+
+    private final Path file;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // The unfinished build jobs by their ID, in the order they were submitted.
+    private final Map<String, JournalEntry> entries = new LinkedHashMap<>();
+
+    private final List<RecoveredBuildJob> recoveredBuildJobs;
+
+    private FileChannel channel;
+
+    public LocalCIBuildJournal(Path file) throws IOException {
+        this.file = file.toAbsolutePath();
+        Files.createDirectories(this.file.getParent());
+        if (Files.exists(this.file)) {
+            read();
+        }
+        List<RecoveredBuildJob> recovered = new ArrayList<>();
+        entries.forEach((id, entry) -> recovered.add(new RecoveredBuildJob(id, entry.request, List.copyOf(entry.attachedSubmissionIds), entry.attempts,
+                entry.lastAgentName)));
+        this.recoveredBuildJobs = List.copyOf(recovered);
+        compact();
+    }
+
+    /**
+     * Returns the build jobs that were not finished when the journal was used the last time.
+     */
+    List<RecoveredBuildJob> getRecoveredBuildJobs() {
+        return recoveredBuildJobs;
+    }
+
+    /**
+     * Records a new build job. Does nothing if the build job is already recorded, e.g. because it was recovered.
+     */
+    void submitted(String buildJobId, LocalCIBuildJobRequest request) {
+        lock.lock();
+        try {
+            if (entries.containsKey(buildJobId)) {
+                return;
+            }
+            // Encode first, so that a request that cannot be recorded is not kept either.
+            byte[] record = submittedRecord(buildJobId, request);
+            entries.put(buildJobId, new JournalEntry(request));
+            write(record, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a further submission that waits for the result of the build job.
+     */
+    void attached(String buildJobId, String submissionId) {
+        lock.lock();
+        try {
+            JournalEntry entry = entries.get(buildJobId);
+            if (entry == null) {
+                return;
+            }
+            entry.attachedSubmissionIds.add(submissionId);
+            write(record(RECORD_ATTACHED, buildJobId, outputStream -> outputStream.writeUTF(submissionId)), true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void started(String buildJobId, String agentName, int attempt) {
+        lock.lock();
+        try {
+            JournalEntry entry = entries.get(buildJobId);
+            if (entry == null) {
+                return;
+            }
+            entry.attempts = attempt;
+            entry.lastAgentName = agentName;
+            write(startedRecord(buildJobId, agentName, attempt), false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that the build job does not have to run again, because it completed, failed or was cancelled.
+     */
+    void finished(String buildJobId) {
+        lock.lock();
+        try {
+            if (entries.remove(buildJobId) == null) {
+                return;
+            }
+            write(record(RECORD_FINISHED, buildJobId, outputStream -> {
+            }), false);
+            if (channel != null && channel.size() > COMPACTION_THRESHOLD_BYTES) {
+                compact();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not compact build journal " + file + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException e) {
+            System.out.println("Could not close build journal " + file + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Failing to write the journal does not stop the build jobs, they only do not survive a restart.
+    private void write(byte[] record, boolean force) {
+        if (channel == null) {
+            System.out.println("Build journal " + file + " is closed");
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write build journal " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length = inputStream.readInt();
+                long checksum = inputStream.readInt() & 0xFFFFFFFFL;
+                if (length < 0 || length > COMPACTION_THRESHOLD_BYTES) {
+                    System.out.println("Build journal " + file + " is corrupt, ignoring the rest of it");
+                    return;
+                }
+                byte[] payload = new byte[length];
+                inputStream.readFully(payload);
+                if (checksum(payload) != checksum) {
+                    System.out.println("Build journal " + file + " is corrupt, ignoring the rest of it");
+                    return;
+                }
+                try {
+                    apply(new DataInputStream(new ByteArrayInputStream(payload)));
+                } catch (IOException e) {
+                    // The record is complete, only its content is not understood. Skipping it loses at most this build job, not the agent start.
+                    System.out.println("Skipping unreadable record in build journal " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (EOFException e) {
+            // End of the journal, possibly in the middle of the last record.
+        }
+    }
+
+    private void apply(DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        String buildJobId = record.readUTF();
+        switch (type) {
+            case RECORD_SUBMITTED -> entries.putIfAbsent(buildJobId, new JournalEntry(readRequest(record)));
+            case RECORD_ATTACHED -> {
+                JournalEntry entry = entries.get(buildJobId);
+                if (entry != null) {
+                    entry.attachedSubmissionIds.add(record.readUTF());
+                }
+            }
+            case RECORD_STARTED -> {
+                JournalEntry entry = entries.get(buildJobId);
+                if (entry != null) {
+                    entry.lastAgentName = record.readUTF();
+                    entry.attempts = record.readInt();
+                }
+            }
+            case RECORD_FINISHED -> entries.remove(buildJobId);
+            default -> throw new IOException("Unknown record type " + type + " in build journal " + file);
+        }
+    }
+
+    // Replaces the journal with one holding only the unfinished build jobs.
+    private void compact() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Path temporaryFile = Files.createTempFile(file.getParent(), "journal", ".tmp");
+        try (FileChannel temporaryChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, JournalEntry> entry : entries.entrySet()) {
+                String buildJobId = entry.getKey();
+                JournalEntry journalEntry = entry.getValue();
+                List<byte[]> records = new ArrayList<>();
+                records.add(submittedRecord(buildJobId, journalEntry.request));
+                for (String submissionId : journalEntry.attachedSubmissionIds) {
+                    records.add(record(RECORD_ATTACHED, buildJobId, outputStream -> outputStream.writeUTF(submissionId)));
+                }
+                if (journalEntry.attempts > 0) {
+                    records.add(startedRecord(buildJobId, journalEntry.lastAgentName, journalEntry.attempts));
+                }
+                for (byte[] record : records) {
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    while (buffer.hasRemaining()) {
+                        temporaryChannel.write(buffer);
+                    }
+                }
+            }
+            temporaryChannel.force(true);
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static byte[] submittedRecord(String buildJobId, LocalCIBuildJobRequest request) {
+        return record(RECORD_SUBMITTED, buildJobId, outputStream -> {
+            writeNullableString(outputStream, request.submissionId());
+            outputStream.writeUTF(request.buildTool().name());
+            outputStream.writeUTF(request.assignmentRepositoryPath().toString());
+            outputStream.writeUTF(request.testRepositoryPath().toString());
+            outputStream.writeUTF(request.scriptPath().toString());
+            LocalCIBuildTimeouts timeouts = request.timeouts();
+            outputStream.writeLong(timeouts.cloneTimeout().toMillis());
+            outputStream.writeLong(timeouts.compileTimeout().toMillis());
+            outputStream.writeLong(timeouts.testTimeout().toMillis());
+            outputStream.writeLong(timeouts.extractionTimeout().toMillis());
+            LocalCIResourceProfile resourceProfile = request.resourceProfile();
+            outputStream.writeDouble(resourceProfile.cpus());
+            writeNullableString(outputStream, resourceProfile.cpusetCpus());
+            outputStream.writeLong(resourceProfile.memoryBytes());
+            outputStream.writeLong(resourceProfile.memorySwapBytes());
+            outputStream.writeLong(resourceProfile.pidsLimit());
+            outputStream.writeLong(resourceProfile.tmpfsSizeBytes());
+            outputStream.writeUTF(request.priority().name());
+            outputStream.writeUTF(request.courseId());
+        });
+    }
+
+    private static LocalCIBuildJobRequest readRequest(DataInputStream inputStream) throws IOException {
+        try {
+            String submissionId = readNullableString(inputStream);
+            BuildTool buildTool = BuildTool.valueOf(inputStream.readUTF());
+            Path assignmentRepositoryPath = Paths.get(inputStream.readUTF());
+            Path testRepositoryPath = Paths.get(inputStream.readUTF());
+            Path scriptPath = Paths.get(inputStream.readUTF());
+            LocalCIBuildTimeouts timeouts = new LocalCIBuildTimeouts(Duration.ofMillis(inputStream.readLong()), Duration.ofMillis(inputStream.readLong()),
+                    Duration.ofMillis(inputStream.readLong()), Duration.ofMillis(inputStream.readLong()));
+            LocalCIResourceProfile resourceProfile = new LocalCIResourceProfile(inputStream.readDouble(), readNullableString(inputStream), inputStream.readLong(),
+                    inputStream.readLong(), inputStream.readLong(), inputStream.readLong());
+            LocalCIBuildPriority priority = LocalCIBuildPriority.valueOf(inputStream.readUTF());
+            String courseId = inputStream.readUTF();
+            return new LocalCIBuildJobRequest(submissionId, buildTool, assignmentRepositoryPath, testRepositoryPath, scriptPath, timeouts, resourceProfile, priority,
+                    courseId);
+        } catch (IllegalArgumentException e) {
+            // E.g. a build tool or priority that no longer exists.
+            throw new IOException("Invalid build job in build journal: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] startedRecord(String buildJobId, String agentName, int attempt) {
+        return record(RECORD_STARTED, buildJobId, outputStream -> {
+            outputStream.writeUTF(agentName);
+            outputStream.writeInt(attempt);
+        });
+    }
+
+    // A record is the length and the CRC32 of its payload, followed by the payload: type, build job ID and the content of the type.
+    private static byte[] record(byte type, String buildJobId, RecordContent content) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream payloadStream = new DataOutputStream(payload);
+            payloadStream.writeByte(type);
+            payloadStream.writeUTF(buildJobId);
+            content.write(payloadStream);
+            byte[] payloadBytes = payload.toByteArray();
+            ByteArrayOutputStream record = new ByteArrayOutputStream(payloadBytes.length + 8);
+            DataOutputStream recordStream = new DataOutputStream(record);
+            recordStream.writeInt(payloadBytes.length);
+            recordStream.writeInt((int) checksum(payloadBytes));
+            recordStream.write(payloadBytes);
+            return record.toByteArray();
+        } catch (IOException e) {
+            // Writes to memory only.
+            throw new IllegalStateException("Could not encode build journal record", e);
+        }
+    }
+
+    private static long checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    private static void writeNullableString(DataOutputStream outputStream, String value) throws IOException {
+        outputStream.writeBoolean(value != null);
+        if (value != null) {
+            outputStream.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream inputStream) throws IOException {
+        return inputStream.readBoolean() ? inputStream.readUTF() : null;
+    }
+
+    private interface RecordContent {
+
+        void write(DataOutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * A build job that was not finished when the journal was used the last time.
+     *
+     * @param attachedSubmissionIds further submissions waiting for the result of the build job
+     * @param attempts              how often the build job was started
+     * @param lastAgentName         the agent that ran the last attempt, null if the build job never started
+     */
+    record RecoveredBuildJob(String id, LocalCIBuildJobRequest request, List<String> attachedSubmissionIds, int attempts, String lastAgentName) {
+    }
+
+    private static class JournalEntry {
+
+        private final LocalCIBuildJobRequest request;
+
+        private final List<String> attachedSubmissionIds = new ArrayList<>();
+
+        private int attempts = 0;
+
+        private String lastAgentName;
+
+        JournalEntry(LocalCIBuildJobRequest request) {
+            this.request = request;
+        }
+    }
+}
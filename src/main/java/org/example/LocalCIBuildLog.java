@@ -0,0 +1,144 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The output of a build job while it is running. The output is forwarded to the subscribed listeners as it arrives. Only the most recent output is kept, up to
+ * a maximum number of bytes, so that listeners that subscribe late, e.g. when a user opens the build page, first get the recent output and then the live output.
+ */
+public class LocalCIBuildLog {
+
+    public static final int DEFAULT_BUFFER_SIZE_BYTES = 64 * 1024;
+
+    private final int bufferSizeBytes;
+
+    // Not a monitor: listeners write files while it is held, which would pin a virtual thread to its carrier.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ArrayDeque<Chunk> buffer = new ArrayDeque<>();
+
+    private int bufferedBytes = 0;
+
+    private final List<LocalCIBuildLogListener> listeners = new ArrayList<>();
+
+    private boolean closed = false;
+
+    public LocalCIBuildLog(int bufferSizeBytes) {
+        if (bufferSizeBytes < 0) {
+            throw new IllegalArgumentException("Invalid log buffer size: " + bufferSizeBytes);
+        }
+        this.bufferSizeBytes = bufferSizeBytes;
+    }
+
+    public void append(LocalCIBuildPhase phase, boolean stderr, byte[] data) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            Chunk chunk = new Chunk(phase, stderr, data);
+            buffer.addLast(chunk);
+            bufferedBytes += data.length;
+            // Drop the oldest chunks, but always keep the latest one, even if it alone exceeds the buffer size.
+            while (bufferedBytes > bufferSizeBytes && buffer.size() > 1) {
+                bufferedBytes -= buffer.removeFirst().data().length;
+            }
+            // Iterate over a copy, a listener that fails is removed while iterating.
+            for (LocalCIBuildLogListener listener : List.copyOf(listeners)) {
+                notify(listener, chunk);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays the buffered output to the listener and forwards all further output to it. If the log is already closed, the listener only gets the buffered
+     * output and is closed right away.
+     */
+    public void subscribe(LocalCIBuildLogListener listener) {
+        lock.lock();
+        try {
+            for (Chunk chunk : buffer) {
+                if (!notify(listener, chunk)) {
+                    return;
+                }
+            }
+            if (closed) {
+                listener.onClose();
+            } else {
+                listeners.add(listener);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unsubscribe(LocalCIBuildLogListener listener) {
+        lock.lock();
+        try {
+            listeners.remove(listener);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the buffered output of both streams as text.
+     */
+    public String getRecentOutput() {
+        lock.lock();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(bufferedBytes);
+            for (Chunk chunk : buffer) {
+                output.writeBytes(chunk.data());
+            }
+            return output.toString(StandardCharsets.UTF_8);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the output and closes all listeners.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (LocalCIBuildLogListener listener : listeners) {
+                try {
+                    listener.onClose();
+                } catch (RuntimeException e) {
+                    System.out.println("Build log listener failed: " + e.getMessage());
+                }
+            }
+            listeners.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A listener that fails is removed, so that it does not break the build job or the other listeners.
+    private boolean notify(LocalCIBuildLogListener listener, Chunk chunk) {
+        try {
+            listener.onOutput(chunk.phase(), chunk.stderr(), chunk.data());
+            return true;
+        } catch (RuntimeException e) {
+            System.out.println("Build log listener failed and was removed: " + e.getMessage());
+            listeners.remove(listener);
+            return false;
+        }
+    }
+
+    private record Chunk(LocalCIBuildPhase phase, boolean stderr, byte[] data) {
+    }
+}
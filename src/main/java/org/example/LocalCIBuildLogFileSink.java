@@ -0,0 +1,41 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the output of a build job to a file as it arrives, both streams interleaved in the order they were printed.
+ */
+public class LocalCIBuildLogFileSink implements LocalCIBuildLogListener {
+
+    private final OutputStream outputStream;
+
+    public LocalCIBuildLogFileSink(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.outputStream = new BufferedOutputStream(Files.newOutputStream(file));
+    }
+
+    @Override
+    public void onOutput(LocalCIBuildPhase phase, boolean stderr, byte[] data) {
+        try {
+            outputStream.write(data);
+        } catch (IOException e) {
+            // The log removes the failing listener, it is not closed afterwards.
+            onClose();
+            throw new UncheckedIOException("Could not write build log", e);
+        }
+    }
+
+    @Override
+    public void onClose() {
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close build log", e);
+        }
+    }
+}
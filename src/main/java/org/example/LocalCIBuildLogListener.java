@@ -0,0 +1,20 @@
+package org.example;
+
+/**
+ * Receives the output of a build job while it is running. Listeners are called on the thread that reads the output from Docker, so they must return quickly.
+ */
+public interface LocalCIBuildLogListener {
+
+    /**
+     * Called for every chunk of output in the order it was printed. The chunks are not split at line breaks.
+     *
+     * @param stderr true if the chunk was printed to the standard error stream
+     */
+    void onOutput(LocalCIBuildPhase phase, boolean stderr, byte[] data);
+
+    /**
+     * Called once after the last chunk, when the build job has finished.
+     */
+    default void onClose() {
+    }
+}
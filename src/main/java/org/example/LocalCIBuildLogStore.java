@@ -0,0 +1,311 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the output of finished build jobs as gzip compressed files, one per build job.
+ * <p>
+ * The stored output of a build job is limited: the first bytes (head) are compressed and written to disk as they arrive, the last bytes (tail) are kept in a
+ * ring buffer in memory and appended when the build job finishes. Everything in between is replaced by a note how many bytes were left out, so that a
+ * submission printing in an endless loop neither fills the disk nor the heap, while the start of the build and the final error messages are kept.
+ * <p>
+ * The total size of the store is bounded as well, the oldest logs are deleted first.
+ * <p>
+ * A log is written to a temporary file until the build job finishes. The file is only created once the build job produces output, so that queued build jobs
+ * do not hold open files. Temporary files left behind by a crash are deleted when the store is created, so only one store may use a directory.
+ */
+public class LocalCIBuildLogStore implements AutoCloseable {
+
+    private static final String FILE_EXTENSION = ".log.gz";
+
+    private static final String TEMPORARY_FILE_PREFIX = "log";
+
+    private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+    private final Path storePath;
+
+    private final int headBytes;
+
+    private final int tailBytes;
+
+    private final long maxSizeBytes;
+
+    private final ScheduledExecutorService cleanupExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "local-ci-build-log-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param headBytes    number of bytes kept from the start of the output of a build job
+     * @param tailBytes    number of bytes kept from the end of the output of a build job, held in memory while the build job is running
+     * @param maxSizeBytes compressed size of all logs above which the oldest logs are deleted
+     */
+    public LocalCIBuildLogStore(Path storePath, int headBytes, int tailBytes, long maxSizeBytes) {
+        if (headBytes < 0 || tailBytes < 0) {
+            throw new IllegalArgumentException("Invalid log limits: " + headBytes + " head bytes, " + tailBytes + " tail bytes");
+        }
+        this.storePath = storePath.toAbsolutePath();
+        this.headBytes = headBytes;
+        this.tailBytes = tailBytes;
+        this.maxSizeBytes = maxSizeBytes;
+        try {
+            Files.createDirectories(this.storePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create build log directory " + storePath, e);
+        }
+        deleteTemporaryFiles();
+    }
+
+    /**
+     * Runs the size-bounded eviction periodically in the background.
+     */
+    public void startCleanup(Duration interval) {
+        cleanupExecutor.scheduleWithFixedDelay(this::evict, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a listener that stores the output of the build job with the given ID. The log becomes visible once the listener is closed.
+     */
+    public LocalCIBuildLogListener openWriter(String buildJobId) {
+        return new Writer(buildJobId);
+    }
+
+    /**
+     * Opens the stored output of the build job for reading. The output is decompressed while it is read, it is never loaded into memory as a whole.
+     *
+     * @throws java.nio.file.NoSuchFileException if there is no log for the build job, e.g. because it was evicted
+     */
+    public InputStream openLog(String buildJobId) throws IOException {
+        return new GZIPInputStream(Files.newInputStream(file(buildJobId)));
+    }
+
+    public boolean hasLog(String buildJobId) {
+        return Files.isRegularFile(file(buildJobId));
+    }
+
+    /**
+     * Deletes the oldest logs until the store is below its maximum size.
+     */
+    public void evict() {
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(storePath)) {
+            files = paths.filter(path -> path.getFileName().toString().endsWith(FILE_EXTENSION)).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.println("Could not list build logs in " + storePath + ": " + e.getMessage());
+            return;
+        }
+        List<StoredLog> logs = new ArrayList<>();
+        long totalSize = 0;
+        for (Path file : files) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                logs.add(new StoredLog(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                totalSize += attributes.size();
+            } catch (IOException e) {
+                // Deleted in the meantime.
+            }
+        }
+        logs.sort(Comparator.comparingLong(StoredLog::lastModifiedMillis));
+        for (StoredLog log : logs) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(log.file());
+                totalSize -= log.sizeBytes();
+            } catch (IOException e) {
+                System.out.println("Could not delete build log " + log.file() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        cleanupExecutor.shutdownNow();
+    }
+
+    // The logs of build jobs that were running when the process stopped, they are never completed.
+    private void deleteTemporaryFiles() {
+        try (Stream<Path> paths = Files.list(storePath)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String fileName = path.getFileName().toString();
+                if (fileName.startsWith(TEMPORARY_FILE_PREFIX) && fileName.endsWith(TEMPORARY_FILE_EXTENSION)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not delete temporary build logs in " + storePath + ": " + e.getMessage());
+        }
+    }
+
+    private Path file(String buildJobId) {
+        return storePath.resolve(buildJobId + FILE_EXTENSION);
+    }
+
+    private record StoredLog(Path file, long sizeBytes, long lastModifiedMillis) {
+    }
+
+    private class Writer implements LocalCIBuildLogListener {
+
+        private final String buildJobId;
+
+        // Created with the first output.
+        private Path temporaryFile;
+
+        private OutputStream outputStream;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private long writtenBytes = 0;
+
+        // Ring buffer of the tail, only allocated once the head is full.
+        private byte[] tail;
+
+        private int tailStart = 0;
+
+        private int tailLength = 0;
+
+        private long truncatedBytes = 0;
+
+        private boolean closed = false;
+
+        Writer(String buildJobId) {
+            this.buildJobId = buildJobId;
+        }
+
+        // Must be called with the lock held.
+        private void open() throws IOException {
+            if (outputStream != null) {
+                return;
+            }
+            // Write to a temporary file first, so that readers never see a partial log.
+            temporaryFile = Files.createTempFile(storePath, TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_EXTENSION);
+            outputStream = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)));
+        }
+
+        @Override
+        public void onOutput(LocalCIBuildPhase phase, boolean stderr, byte[] data) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                int headLength = (int) Math.min(data.length, headBytes - writtenBytes);
+                if (headLength > 0) {
+                    try {
+                        open();
+                        outputStream.write(data, 0, headLength);
+                    } catch (IOException e) {
+                        abort();
+                        throw new UncheckedIOException("Could not write build log " + buildJobId, e);
+                    }
+                    writtenBytes += headLength;
+                }
+                int offset = Math.max(headLength, 0);
+                if (offset < data.length) {
+                    appendToTail(data, offset, data.length - offset);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void appendToTail(byte[] data, int offset, int length) {
+            if (tailBytes == 0) {
+                truncatedBytes += length;
+                return;
+            }
+            if (tail == null) {
+                tail = new byte[tailBytes];
+            }
+            // Only the last bytes of a large chunk can end up in the tail.
+            if (length > tailBytes) {
+                truncatedBytes += length - tailBytes;
+                offset += length - tailBytes;
+                length = tailBytes;
+            }
+            // Drop the oldest bytes to make room.
+            int overflow = tailLength + length - tailBytes;
+            if (overflow > 0) {
+                tailStart = (tailStart + overflow) % tailBytes;
+                tailLength -= overflow;
+                truncatedBytes += overflow;
+            }
+            int end = (tailStart + tailLength) % tailBytes;
+            int firstPart = Math.min(length, tailBytes - end);
+            System.arraycopy(data, offset, tail, end, firstPart);
+            System.arraycopy(data, offset + firstPart, tail, 0, length - firstPart);
+            tailLength += length;
+        }
+
+        @Override
+        public void onClose() {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                try {
+                    open();
+                    if (truncatedBytes > 0) {
+                        outputStream.write(("\n[... " + truncatedBytes + " bytes of output left out ...]\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                    if (tailLength > 0) {
+                        int firstPart = Math.min(tailLength, tailBytes - tailStart);
+                        outputStream.write(tail, tailStart, firstPart);
+                        outputStream.write(tail, 0, tailLength - firstPart);
+                    }
+                    outputStream.close();
+                    closed = true;
+                    tail = null;
+                    Files.move(temporaryFile, file(buildJobId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    abort();
+                    throw new UncheckedIOException("Could not store build log " + buildJobId, e);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void abort() {
+            closed = true;
+            tail = null;
+            if (outputStream == null) {
+                return;
+            }
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                // The file is deleted anyway.
+            }
+            try {
+                Files.deleteIfExists(temporaryFile);
+            } catch (IOException e) {
+                System.out.println("Could not delete temporary build log " + temporaryFile + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.example;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations of the stages of build jobs, recorded with nanosecond precision into histograms, so that it is visible where the time of a build goes.
+ * Recording never blocks, so it can be done on the hot paths of the build jobs.
+ */
+public class LocalCIBuildMetrics {
+
+    public enum Stage {
+        // From submitting the build job until an agent starts it.
+        QUEUE_WAIT,
+        // Taking a container from the pool, includes creating and starting one if the pool is empty.
+        CONTAINER_LEASE,
+        CONTAINER_CREATE,
+        CONTAINER_START,
+        CLONE,
+        COMPILE,
+        TEST,
+        // Collecting the results in the container and copying them out, without parsing.
+        RESULT_COPY,
+        RESULT_PARSE,
+        // Resetting the container and giving it back to the pool.
+        CONTAINER_RETURN,
+        // From the start of the build job on the agent until it has finished, including giving back the container.
+        TOTAL
+    }
+
+    // Upper bounds of the histogram buckets in seconds, from fast Docker API calls up to the longest build timeouts.
+    private static final double[] BUCKET_BOUNDS_SECONDS = { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 20, 30, 60, 120, 300, 600 };
+
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS_SECONDS[i] * 1_000_000_000L);
+        }
+    }
+
+    private final Map<Stage, Histogram> histograms = new EnumMap<>(Stage.class);
+
+    public LocalCIBuildMetrics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new Histogram());
+        }
+    }
+
+    /**
+     * Records the duration of a stage that started at the given {@link System#nanoTime()}.
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        record(stage, System.nanoTime() - startNanos);
+    }
+
+    public void record(Stage stage, long durationNanos) {
+        histograms.get(stage).record(Math.max(0, durationNanos));
+    }
+
+    public long getCount(Stage stage) {
+        return histograms.get(stage).count.sum();
+    }
+
+    public long getTotalNanos(Stage stage) {
+        return histograms.get(stage).sumNanos.sum();
+    }
+
+    /**
+     * Appends the histograms in the Prometheus text exposition format.
+     */
+    public void writePrometheus(StringBuilder output) {
+        output.append("# HELP local_ci_build_stage_seconds Duration of the stages of build jobs.\n");
+        output.append("# TYPE local_ci_build_stage_seconds histogram\n");
+        for (Map.Entry<Stage, Histogram> entry : histograms.entrySet()) {
+            String stage = entry.getKey().name().toLowerCase(Locale.ROOT);
+            Histogram histogram = entry.getValue();
+            // Prometheus buckets are cumulative.
+            long cumulativeCount = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++) {
+                cumulativeCount += histogram.buckets[i].sum();
+                output.append("local_ci_build_stage_seconds_bucket{stage=\"").append(stage).append("\",le=\"").append(BUCKET_BOUNDS_SECONDS[i]).append("\"} ")
+                        .append(cumulativeCount).append('\n');
+            }
+            cumulativeCount += histogram.buckets[BUCKET_BOUNDS_SECONDS.length].sum();
+            output.append("local_ci_build_stage_seconds_bucket{stage=\"").append(stage).append("\",le=\"+Inf\"} ").append(cumulativeCount).append('\n');
+            output.append("local_ci_build_stage_seconds_sum{stage=\"").append(stage).append("\"} ").append(histogram.sumNanos.sum() / 1e9).append('\n');
+            output.append("local_ci_build_stage_seconds_count{stage=\"").append(stage).append("\"} ").append(histogram.count.sum()).append('\n');
+        }
+    }
+
+    private static class Histogram {
+
+        // One bucket per bound plus one for everything above the largest bound.
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long durationNanos) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_NANOS.length && durationNanos > BUCKET_BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            sumNanos.add(durationNanos);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.example;
+
+public enum LocalCIBuildPhase {
+    CLONE,
+    COMPILE,
+    TEST,
+    EXTRACTION
+}
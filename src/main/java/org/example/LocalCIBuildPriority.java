@@ -0,0 +1,15 @@
+package org.example;
+
+/**
+ * Priority classes of build jobs, from the most to the least urgent.
+ */
+public enum LocalCIBuildPriority {
+    // Submissions of a running exam, students wait for the result before they continue.
+    EXAM,
+    // Builds triggered manually by an instructor.
+    MANUAL,
+    // Regular pushes of students.
+    STUDENT_PUSH,
+    // Re-runs of all submissions of an exercise, e.g. after the tests were changed. Nobody waits for a particular result.
+    BULK_RERUN
+}
@@ -0,0 +1,27 @@
+package org.example;
+
+/**
+ * Immutable, compact form of a {@link LocalCIBuildJobDTO}, used where many results are kept in memory, e.g. in the {@link LocalCIResultCache}. The test
+ * names are shared by all results of an exercise through the {@link LocalCITestNameDictionary} of the test results.
+ */
+public record LocalCIBuildResult(LocalCIBuildStatus buildStatus, boolean buildSuccessful, LocalCIBuildPhase timedOutPhase, String commitHashAssignmentRepository,
+        String commitHashTestRepository, String buildLogId, LocalCITestResults testResults) {
+
+    public static LocalCIBuildResult of(LocalCIBuildJobDTO buildJob, LocalCITestNameDictionary dictionary) {
+        return new LocalCIBuildResult(buildJob.getBuildStatus(), buildJob.isBuildSuccessful(), buildJob.getTimedOutPhase(), buildJob.getCommitHashAssignmentRepository(),
+                buildJob.getCommitHashTestRepository(), buildJob.getBuildLogId(),
+                LocalCITestResults.of(dictionary, buildJob.getFailedTests(), buildJob.getSuccessfulTests(), buildJob.getSkippedTests()));
+    }
+
+    /**
+     * Creates a new, mutable DTO of the result, e.g. to hand it out of the cache without risking changes to the cached result.
+     */
+    public LocalCIBuildJobDTO toDTO() {
+        LocalCIBuildJobDTO buildJob = new LocalCIBuildJobDTO(buildStatus, timedOutPhase, commitHashAssignmentRepository, commitHashTestRepository,
+                testResults.toTestCases(LocalCITestStatus.FAILED, LocalCITestStatus.ERROR), testResults.toTestCases(LocalCITestStatus.PASSED),
+                testResults.toTestCases(LocalCITestStatus.SKIPPED));
+        buildJob.setBuildSuccessful(buildSuccessful);
+        buildJob.setBuildLogId(buildLogId);
+        return buildJob;
+    }
+}
@@ -0,0 +1,313 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides which queued build job runs next. Unlike a FIFO queue, a single exercise with hundreds of queued submissions does not delay a small exam running
+ * at the same time.
+ * <ul>
+ * <li>Jobs of a more urgent {@link LocalCIBuildPriority} run first.</li>
+ * <li>Within a priority class, courses share the workers according to their weights, and the exercises of a course share the workers of the course equally.
+ * This is stride scheduling: every course and exercise has a pass value that grows with every job it gets, the one with the lowest pass value is next.</li>
+ * <li>Waiting jobs age: every aging interval the oldest job of a class waited counts as one class more urgent, so that less urgent jobs never starve.</li>
+ * </ul>
+ * The scheduler does not run jobs itself, workers take the next job with {@link #poll()}.
+ *
+ * @param <T> the type of the queued jobs
+ */
+public class LocalCIBuildScheduler<T> {
+
+    private static final int DEFAULT_COURSE_WEIGHT = 1;
+
+    private final Duration agingInterval;
+
+    private final Map<LocalCIBuildPriority, PriorityClass> priorityClasses = new EnumMap<>(LocalCIBuildPriority.class);
+
+    private final Map<String, Integer> courseWeights = new HashMap<>();
+
+    public LocalCIBuildScheduler(Duration agingInterval) {
+        if (agingInterval.isNegative() || agingInterval.isZero()) {
+            throw new IllegalArgumentException("Invalid aging interval: " + agingInterval);
+        }
+        this.agingInterval = agingInterval;
+        for (LocalCIBuildPriority priority : LocalCIBuildPriority.values()) {
+            priorityClasses.put(priority, new PriorityClass());
+        }
+    }
+
+    /**
+     * Sets the share of the workers a course gets relative to the other courses with queued jobs of the same priority class. Courses have weight 1 by default.
+     */
+    public synchronized void setCourseWeight(String courseId, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Invalid course weight: " + weight);
+        }
+        courseWeights.put(courseId, weight);
+    }
+
+    public synchronized void add(Entry<T> entry) {
+        if (entry.queued) {
+            throw new IllegalStateException("Build job is already queued");
+        }
+        entry.queued = true;
+        priorityClasses.get(entry.priority).add(entry);
+    }
+
+    /**
+     * Removes a job that is no longer needed, e.g. because it was cancelled.
+     *
+     * @return true if the job was still queued
+     */
+    public synchronized boolean remove(Entry<T> entry) {
+        if (!entry.queued) {
+            return false;
+        }
+        entry.queued = false;
+        priorityClasses.get(entry.priority).remove(entry);
+        return true;
+    }
+
+    /**
+     * Moves a queued job to a more urgent priority class, e.g. because an exam submission was coalesced with a queued re-run of the same commits.
+     * The job keeps its waiting time. Does nothing if the job is not queued anymore or already at least as urgent.
+     */
+    public synchronized void promote(Entry<T> entry, LocalCIBuildPriority priority) {
+        if (!entry.queued || priority.compareTo(entry.priority) >= 0) {
+            return;
+        }
+        priorityClasses.get(entry.priority).remove(entry);
+        entry.priority = priority;
+        priorityClasses.get(priority).add(entry);
+    }
+
+    /**
+     * Removes and returns the job that should run next.
+     *
+     * @return the next job or null if no job is queued
+     */
+    public synchronized Entry<T> poll() {
+        long now = System.nanoTime();
+        LocalCIBuildPriority selectedPriority = null;
+        long selectedRank = Long.MAX_VALUE;
+        for (Map.Entry<LocalCIBuildPriority, PriorityClass> priorityClass : priorityClasses.entrySet()) {
+            Entry<T> oldest = priorityClass.getValue().oldest();
+            if (oldest == null) {
+                continue;
+            }
+            long rank = priorityClass.getKey().ordinal() - (now - oldest.queuedAtNanos) / agingInterval.toNanos();
+            // Classes are iterated from the most urgent one, so ties go to the more urgent class.
+            if (rank < selectedRank) {
+                selectedRank = rank;
+                selectedPriority = priorityClass.getKey();
+            }
+        }
+        if (selectedPriority == null) {
+            return null;
+        }
+        PriorityClass priorityClass = priorityClasses.get(selectedPriority);
+        Entry<T> entry = priorityClass.poll();
+        entry.queued = false;
+        priorityClass.recordWaitTime(now - entry.queuedAtNanos);
+        return entry;
+    }
+
+    public synchronized int size() {
+        return priorityClasses.values().stream().mapToInt(priorityClass -> priorityClass.size).sum();
+    }
+
+    /**
+     * Returns the current queue depth and the waiting times of the jobs taken so far, per priority class.
+     */
+    public synchronized Map<LocalCIBuildPriority, Statistics> getStatistics() {
+        long now = System.nanoTime();
+        Map<LocalCIBuildPriority, Statistics> statistics = new EnumMap<>(LocalCIBuildPriority.class);
+        priorityClasses.forEach((priority, priorityClass) -> statistics.put(priority, priorityClass.statistics(now)));
+        return statistics;
+    }
+
+    private int courseWeight(String courseId) {
+        return courseWeights.getOrDefault(courseId, DEFAULT_COURSE_WEIGHT);
+    }
+
+    /**
+     * @param queueDepth       number of queued jobs
+     * @param oldestWait       how long the oldest queued job has been waiting, zero if no job is queued
+     * @param averageWait      average time the jobs taken from the queue so far were waiting
+     * @param maxWait          longest time a job taken from the queue so far was waiting
+     * @param startedBuildJobs number of jobs taken from the queue so far
+     */
+    public record Statistics(int queueDepth, Duration oldestWait, Duration averageWait, Duration maxWait, long startedBuildJobs) {
+    }
+
+    /**
+     * A queued build job together with what the scheduler needs to know about it.
+     */
+    public static class Entry<T> {
+
+        private final String courseId;
+
+        private final String exerciseId;
+
+        private final T job;
+
+        private final long queuedAtNanos = System.nanoTime();
+
+        // Guarded by the scheduler.
+        private LocalCIBuildPriority priority;
+
+        private boolean queued = false;
+
+        public Entry(LocalCIBuildPriority priority, String courseId, String exerciseId, T job) {
+            this.priority = priority;
+            this.courseId = courseId;
+            this.exerciseId = exerciseId;
+            this.job = job;
+        }
+
+        public T getJob() {
+            return job;
+        }
+
+        /**
+         * Returns the {@link System#nanoTime()} at which the job was queued first.
+         */
+        public long getQueuedAtNanos() {
+            return queuedAtNanos;
+        }
+    }
+
+    private class PriorityClass {
+
+        // Courses and exercises with queued jobs, courses and exercises without queued jobs are removed so that they do not accumulate.
+        private final Map<String, CourseQueue> courses = new LinkedHashMap<>();
+
+        // Pass value of the course that was taken last. Courses that become active start here, so that they cannot catch up on the time they had nothing queued.
+        private double coursePass = 0;
+
+        private int size = 0;
+
+        private long startedBuildJobs = 0;
+
+        private long totalWaitNanos = 0;
+
+        private long maxWaitNanos = 0;
+
+        void add(Entry<T> entry) {
+            CourseQueue course = courses.computeIfAbsent(entry.courseId, courseId -> new CourseQueue(coursePass));
+            ExerciseQueue exercise = course.exercises.computeIfAbsent(entry.exerciseId, exerciseId -> new ExerciseQueue(course.exercisePass));
+            exercise.entries.addLast(entry);
+            size++;
+        }
+
+        void remove(Entry<T> entry) {
+            CourseQueue course = courses.get(entry.courseId);
+            ExerciseQueue exercise = course.exercises.get(entry.exerciseId);
+            exercise.entries.remove(entry);
+            size--;
+            removeIfEmpty(entry.courseId, course, entry.exerciseId, exercise);
+        }
+
+        Entry<T> oldest() {
+            Entry<T> oldest = null;
+            for (CourseQueue course : courses.values()) {
+                for (ExerciseQueue exercise : course.exercises.values()) {
+                    // The jobs of an exercise are queued in order, only promoted jobs can be older than the first one, which is negligible.
+                    Entry<T> first = exercise.entries.peekFirst();
+                    if (oldest == null || first.queuedAtNanos < oldest.queuedAtNanos) {
+                        oldest = first;
+                    }
+                }
+            }
+            return oldest;
+        }
+
+        Entry<T> poll() {
+            String courseId = lowestPass(courses);
+            CourseQueue course = courses.get(courseId);
+            String exerciseId = lowestPass(course.exercises);
+            ExerciseQueue exercise = course.exercises.get(exerciseId);
+            Entry<T> entry = exercise.entries.pollFirst();
+            size--;
+
+            coursePass = course.pass;
+            course.exercisePass = exercise.pass;
+            course.pass += 1.0 / courseWeight(courseId);
+            exercise.pass += 1;
+            removeIfEmpty(courseId, course, exerciseId, exercise);
+            return entry;
+        }
+
+        void recordWaitTime(long waitNanos) {
+            startedBuildJobs++;
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        }
+
+        Statistics statistics(long now) {
+            Entry<T> oldest = oldest();
+            Duration oldestWait = oldest == null ? Duration.ZERO : Duration.ofNanos(now - oldest.queuedAtNanos);
+            Duration averageWait = startedBuildJobs == 0 ? Duration.ZERO : Duration.ofNanos(totalWaitNanos / startedBuildJobs);
+            return new Statistics(size, oldestWait, averageWait, Duration.ofNanos(maxWaitNanos), startedBuildJobs);
+        }
+
+        private void removeIfEmpty(String courseId, CourseQueue course, String exerciseId, ExerciseQueue exercise) {
+            if (exercise.entries.isEmpty()) {
+                course.exercises.remove(exerciseId);
+            }
+            if (course.exercises.isEmpty()) {
+                courses.remove(courseId);
+            }
+        }
+    }
+
+    private static String lowestPass(Map<String, ? extends Flow> flows) {
+        String lowest = null;
+        double lowestPass = Double.MAX_VALUE;
+        // Flows are iterated in the order they became active, so ties go to the one that has been waiting longest.
+        for (Map.Entry<String, ? extends Flow> flow : flows.entrySet()) {
+            if (flow.getValue().pass < lowestPass) {
+                lowestPass = flow.getValue().pass;
+                lowest = flow.getKey();
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * A course or an exercise competing for the workers.
+     */
+    private abstract static class Flow {
+
+        double pass;
+
+        Flow(double pass) {
+            this.pass = pass;
+        }
+    }
+
+    private class CourseQueue extends Flow {
+
+        private final Map<String, ExerciseQueue> exercises = new LinkedHashMap<>();
+
+        // Pass value of the exercise of this course that was taken last, exercises that become active start here.
+        private double exercisePass = 0;
+
+        CourseQueue(double pass) {
+            super(pass);
+        }
+    }
+
+    private class ExerciseQueue extends Flow {
+
+        private final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+
+        ExerciseQueue(double pass) {
+            super(pass);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.example;
+
+public enum LocalCIBuildStatus {
+    SUCCESSFUL,
+    // The code does not compile or at least one test failed.
+    FAILED,
+    // One of the phases of the build did not complete in time.
+    TIMED_OUT,
+    // The build could not run because of a problem of the CI, not of the submission, e.g. the Docker host was not reachable.
+    INTERNAL_ERROR
+}
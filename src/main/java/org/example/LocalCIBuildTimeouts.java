@@ -0,0 +1,20 @@
+package org.example;
+
+import java.time.Duration;
+
+/**
+ * Wall-clock time each phase of a build job may take before the build container is killed.
+ */
+public record LocalCIBuildTimeouts(Duration cloneTimeout, Duration compileTimeout, Duration testTimeout, Duration extractionTimeout) {
+
+    public static final LocalCIBuildTimeouts DEFAULT = new LocalCIBuildTimeouts(Duration.ofMinutes(1), Duration.ofMinutes(3), Duration.ofMinutes(5), Duration.ofMinutes(1));
+
+    public Duration forPhase(LocalCIBuildPhase phase) {
+        return switch (phase) {
+            case CLONE -> cloneTimeout;
+            case COMPILE -> compileTimeout;
+            case TEST -> testTimeout;
+            case EXTRACTION -> extractionTimeout;
+        };
+    }
+}
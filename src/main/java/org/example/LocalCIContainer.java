@@ -0,0 +1,62 @@
+package org.example;
+
+/**
+ * A running build container leased from the {@link LocalCIContainerPool}.
+ */
+public class LocalCIContainer {
+
+    private final String id;
+
+    private final String image;
+
+    private final BuildTool buildTool;
+
+    private LocalCIContainerPool.PoolKey poolKey;
+
+    private int uses;
+
+    private long idleSinceNanos;
+
+    LocalCIContainer(String id, String image, BuildTool buildTool, LocalCIContainerPool.PoolKey poolKey) {
+        this.id = id;
+        this.image = image;
+        this.buildTool = buildTool;
+        this.poolKey = poolKey;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getImage() {
+        return image;
+    }
+
+    public BuildTool getBuildTool() {
+        return buildTool;
+    }
+
+    LocalCIContainerPool.PoolKey getPoolKey() {
+        return poolKey;
+    }
+
+    void setPoolKey(LocalCIContainerPool.PoolKey poolKey) {
+        this.poolKey = poolKey;
+    }
+
+    public int getUses() {
+        return uses;
+    }
+
+    void incrementUses() {
+        uses++;
+    }
+
+    long getIdleSinceNanos() {
+        return idleSinceNanos;
+    }
+
+    void setIdleSinceNanos(long idleSinceNanos) {
+        this.idleSinceNanos = idleSinceNanos;
+    }
+}
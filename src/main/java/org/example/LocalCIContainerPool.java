@@ -0,0 +1,391 @@
+package org.example;
+
+import com.github.dockerjava.api.model.Bind;
+import com.github.dockerjava.api.model.HostConfig;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps started and warmed up build containers per image and build tool, so that build jobs do not have to wait for a container to be created and
+ * started. A build job leases a container, runs its script in it and returns it afterwards. Returned containers are reset and reused until they reach
+ * the maximum number of uses, then they are replaced by a fresh container.
+ * <p>
+ * The number of idle containers is limited per pool key and in total, the least recently used idle containers are removed first. Containers that stay idle
+ * longer than the idle timeout are removed as well, so that e.g. the containers of an exercise nobody builds anymore do not keep their memory forever.
+ * <p>
+ * Before a container is reused, every process the previous build job left behind is killed and everything it could have written is removed, so that
+ * the code of one student cannot read or tamper with the build of the next one.
+ * <p>
+ * In Gradle daemon mode, Gradle containers keep their Gradle daemon running between build jobs, so their processes cannot be killed. A container with a
+ * daemon is therefore only reused for the same participation, so that the next push of the same student finds a daemon that already loaded and compiled the
+ * build script of the exercise. Fresh containers that did not run a build job yet are pooled per exercise and leased by any participation.
+ */
+public class LocalCIContainerPool implements AutoCloseable {
+
+    public static final String DEFAULT_IMAGE = "ls1tum/artemis-maven-template:java17-13";
+
+    // Where the build job copies its workspace to and where script.sh builds it.
+    static final String REPOSITORY_IN_CONTAINER = "/repositories/test-repository";
+
+    // Removes the files of the build job from a container that keeps its processes, i.e. its Gradle daemon. The build directory /repositories itself may be a
+    // tmpfs mount, only its content can be removed.
+    private static final String REMOVE_BUILD_FILES_COMMAND = "rm -rf /repositories/* /repositories/.[!.]* /results /script.sh";
+
+    // Finds the main process of the container. The containers run docker-init as PID 1, which stops the container as soon as its child, the main process,
+    // exits. Processes orphaned by a build job are re-parented to PID 1 as well, but the main process is the oldest child and has the lowest PID. Without
+    // docker-init, PID 1 is the main process itself. Reads the parent from /proc/<pid>/status, the process name in /proc/<pid>/stat can contain spaces.
+    private static final String FIND_MAIN_PROCESS_COMMAND = "main=1; read -r init < /proc/1/comm; "
+            + "if [ \"$init\" = docker-init ]; then main=; for d in /proc/[0-9]*; do p=${d#/proc/}; "
+            + "while read -r key value; do if [ \"$key\" = PPid: ]; then "
+            + "if [ \"$value\" = 1 ] && { [ -z \"$main\" ] || [ \"$p\" -lt \"$main\" ]; }; then main=$p; fi; break; fi; done 2>/dev/null < \"$d/status\"; "
+            + "done; fi; ";
+
+    // Kills all processes except docker-init, the main process and this shell, e.g. background processes started by the tests, twice in case one of them
+    // forked in the meantime. Only uses shell builtins, so that the shell does not start processes it would kill itself.
+    private static final String KILL_LEFTOVER_PROCESSES_COMMAND = FIND_MAIN_PROCESS_COMMAND
+            + "for round in 1 2; do for d in /proc/[0-9]*; do p=${d#/proc/}; case $p in 1|$$|$main) ;; *) kill -9 \"$p\" 2>/dev/null ;; esac; done; done; ";
+
+    // Kills the leftover processes and removes everything the build job could have written: the build files, /tmp and the home directory. The dependency
+    // caches in the home directory are kept: the Maven repository is mounted from the host, the Gradle distributions of the wrapper and the Gradle caches
+    // come with the image or were downloaded by earlier build jobs. Everything else in ~/.gradle, e.g. init scripts and gradle.properties, is removed.
+    private static final String RESET_COMMAND = KILL_LEFTOVER_PROCESSES_COMMAND
+            + REMOVE_BUILD_FILES_COMMAND + " /tmp/* /tmp/.[!.]* && "
+            + "find \"$HOME\" -mindepth 1 -maxdepth 1 ! -name .m2 ! -name .gradle -exec rm -rf {} + && "
+            + "if [ -d \"$HOME/.m2\" ]; then find \"$HOME/.m2\" -mindepth 1 -maxdepth 1 ! -name repository -exec rm -rf {} +; fi && "
+            + "if [ -d \"$HOME/.gradle\" ]; then find \"$HOME/.gradle\" -mindepth 1 -maxdepth 1 ! -name wrapper ! -name caches -exec rm -rf {} +; fi";
+
+    private final LocalCIContainerService containerService;
+
+    private final LocalCIDependencyCache dependencyCache;
+
+    private final int idleContainersPerKey;
+
+    private final int maxIdleContainers;
+
+    private final Duration idleTimeout;
+
+    private final int maxUsesPerContainer;
+
+    private final boolean gradleDaemonEnabled;
+
+    // Guards the idle containers. Only held while the map is changed, never while talking to Docker.
+    private final ReentrantLock idleLock = new ReentrantLock();
+
+    // The idle containers per key, most recently used first. Keys without idle containers are removed, there is a key per participation in daemon mode.
+    private final Map<PoolKey, ArrayDeque<LocalCIContainer>> idleContainers = new HashMap<>();
+
+    private int idleContainerCount = 0;
+
+    // Starts replacement containers in the background, so that leasing never waits for a replacement, and removes containers that were idle for too long.
+    private final ScheduledExecutorService warmUpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "local-ci-container-warm-up");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param idleContainersPerKey the number of idle containers kept per image, build tool, resource profile and, in daemon mode, exercise or participation
+     * @param maxIdleContainers    the number of idle containers kept in total
+     * @param idleTimeout          how long a container may stay idle before it is removed
+     */
+    public LocalCIContainerPool(LocalCIContainerService containerService, LocalCIDependencyCache dependencyCache, int idleContainersPerKey, int maxIdleContainers, Duration idleTimeout, int maxUsesPerContainer, boolean gradleDaemonEnabled) {
+        if (idleContainersPerKey < 0 || maxIdleContainers < 0 || maxUsesPerContainer < 1) {
+            throw new IllegalArgumentException("Invalid container pool size: " + idleContainersPerKey + " idle containers per key, " + maxIdleContainers
+                    + " idle containers, " + maxUsesPerContainer + " uses per container");
+        }
+        this.containerService = containerService;
+        this.dependencyCache = dependencyCache;
+        this.idleContainersPerKey = idleContainersPerKey;
+        this.maxIdleContainers = maxIdleContainers;
+        this.idleTimeout = idleTimeout;
+        this.maxUsesPerContainer = maxUsesPerContainer;
+        this.gradleDaemonEnabled = gradleDaemonEnabled;
+        long checkInterval = Math.max(1000, idleTimeout.toMillis() / 2);
+        warmUpExecutor.scheduleWithFixedDelay(this::removeExpiredContainers, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts containers for the given image, build tool, exercise and resource profile in the background until the configured number of idle containers is reached.
+     */
+    public void warmUp(String image, BuildTool buildTool, String exerciseId, LocalCIResourceProfile resourceProfile) {
+        PoolKey key = poolKey(image, buildTool, exerciseId, null, resourceProfile);
+        int missing = Math.min(idleContainersPerKey - idleContainerCount(key), maxIdleContainers - idleContainerCount());
+        for (int i = 0; i < missing; i++) {
+            warmUpExecutor.execute(() -> addIdleContainer(key));
+        }
+    }
+
+    /**
+     * Takes an idle container out of the pool, or creates a new one if there is none.
+     *
+     * @param exerciseId      identifies the exercise of the build job, only used to find a container with a warm Gradle daemon for the exercise
+     * @param participationId identifies the student or team of the build job, only used to find a container with a warm Gradle daemon for the participation
+     * @param resourceProfile the resource limits the container is created with
+     */
+    public LocalCIContainer leaseContainer(String image, BuildTool buildTool, String exerciseId, String participationId, LocalCIResourceProfile resourceProfile) {
+        if (closed) {
+            throw new LocalCIException("Container pool is closed");
+        }
+        PoolKey key = poolKey(image, buildTool, exerciseId, null, resourceProfile);
+        LocalCIContainer container = null;
+        if (usesGradleDaemon(buildTool)) {
+            container = pollIdleContainer(poolKey(image, buildTool, exerciseId, participationId, resourceProfile));
+        }
+        if (container == null) {
+            container = pollIdleContainer(key);
+        }
+        // Top up the pool for the next build job.
+        warmUpExecutor.execute(() -> {
+            if (idleContainerCount(key) < idleContainersPerKey && idleContainerCount() < maxIdleContainers) {
+                addIdleContainer(key);
+            }
+        });
+        if (container == null) {
+            container = createContainer(key);
+        }
+        if (usesGradleDaemon(buildTool)) {
+            // From now on the daemon of the container holds state of the participation.
+            container.setPoolKey(poolKey(image, buildTool, exerciseId, participationId, resourceProfile));
+        }
+        container.incrementUses();
+        return container;
+    }
+
+    /**
+     * Gives a container back to the pool.
+     *
+     * @param reusable false if the build job left the container in an unknown state, e.g. because it failed with an exception
+     */
+    public void returnContainer(LocalCIContainer container, boolean reusable) {
+        if (!reusable) {
+            containerService.removeContainer(container.getId());
+            return;
+        }
+        if (closed || container.getUses() >= maxUsesPerContainer) {
+            retireContainer(container);
+            return;
+        }
+        try {
+            boolean keepsProcesses = usesGradleDaemon(container.getBuildTool());
+            // The reset keeps the Gradle caches of the container, they are published to the shared cache when the container is retired.
+            long exitCode = containerService.executeCommand(container.getId(), "sh", "-c", keepsProcesses ? REMOVE_BUILD_FILES_COMMAND : RESET_COMMAND);
+            if (exitCode != 0) {
+                containerService.removeContainer(container.getId());
+                return;
+            }
+        } catch (RuntimeException e) {
+            containerService.removeContainer(container.getId());
+            return;
+        }
+        // Reuse the most recently used container first, it has the warmest caches.
+        offerIdleContainer(container, true);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        warmUpExecutor.shutdown();
+        try {
+            warmUpExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<LocalCIContainer> containers = new ArrayList<>();
+        idleLock.lock();
+        try {
+            idleContainers.values().forEach(containers::addAll);
+            idleContainers.clear();
+            idleContainerCount = 0;
+        } finally {
+            idleLock.unlock();
+        }
+        containers.forEach(this::retireContainer);
+    }
+
+    private LocalCIContainer pollIdleContainer(PoolKey key) {
+        idleLock.lock();
+        try {
+            ArrayDeque<LocalCIContainer> idle = idleContainers.get(key);
+            if (idle == null) {
+                return null;
+            }
+            LocalCIContainer container = idle.pollFirst();
+            if (idle.isEmpty()) {
+                idleContainers.remove(key);
+            }
+            idleContainerCount--;
+            return container;
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the container to the idle containers of its key and removes the containers that exceed the limits, the least recently used first.
+     *
+     * @param mostRecentlyUsed true to lease the container next, false to lease it after the other idle containers of its key
+     */
+    private void offerIdleContainer(LocalCIContainer container, boolean mostRecentlyUsed) {
+        List<LocalCIContainer> surplus = new ArrayList<>();
+        idleLock.lock();
+        try {
+            container.setIdleSinceNanos(System.nanoTime());
+            ArrayDeque<LocalCIContainer> idle = idleContainers.computeIfAbsent(container.getPoolKey(), key -> new ArrayDeque<>());
+            if (mostRecentlyUsed) {
+                idle.addFirst(container);
+            } else {
+                idle.addLast(container);
+            }
+            idleContainerCount++;
+            if (idle.size() > idleContainersPerKey) {
+                surplus.add(removeLeastRecentlyUsed(container.getPoolKey(), idle));
+            }
+            while (idleContainerCount > maxIdleContainers) {
+                surplus.add(removeLeastRecentlyUsed());
+            }
+        } finally {
+            idleLock.unlock();
+        }
+        // Outside of the lock, retiring talks to Docker.
+        surplus.forEach(this::retireContainer);
+    }
+
+    private void removeExpiredContainers() {
+        List<LocalCIContainer> expired = new ArrayList<>();
+        long expiryThreshold = System.nanoTime() - idleTimeout.toNanos();
+        idleLock.lock();
+        try {
+            for (var iterator = idleContainers.entrySet().iterator(); iterator.hasNext(); ) {
+                ArrayDeque<LocalCIContainer> idle = iterator.next().getValue();
+                // The least recently used containers are at the end.
+                while (!idle.isEmpty() && idle.peekLast().getIdleSinceNanos() - expiryThreshold < 0) {
+                    expired.add(idle.pollLast());
+                    idleContainerCount--;
+                }
+                if (idle.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        } finally {
+            idleLock.unlock();
+        }
+        expired.forEach(this::retireContainer);
+    }
+
+    // Must be called with the idle lock held and at least one idle container.
+    private LocalCIContainer removeLeastRecentlyUsed() {
+        PoolKey leastRecentlyUsedKey = null;
+        ArrayDeque<LocalCIContainer> leastRecentlyUsedIdle = null;
+        for (Map.Entry<PoolKey, ArrayDeque<LocalCIContainer>> entry : idleContainers.entrySet()) {
+            if (leastRecentlyUsedIdle == null || entry.getValue().peekLast().getIdleSinceNanos() - leastRecentlyUsedIdle.peekLast().getIdleSinceNanos() < 0) {
+                leastRecentlyUsedKey = entry.getKey();
+                leastRecentlyUsedIdle = entry.getValue();
+            }
+        }
+        return removeLeastRecentlyUsed(leastRecentlyUsedKey, leastRecentlyUsedIdle);
+    }
+
+    private LocalCIContainer removeLeastRecentlyUsed(PoolKey key, ArrayDeque<LocalCIContainer> idle) {
+        LocalCIContainer container = idle.pollLast();
+        if (idle.isEmpty()) {
+            idleContainers.remove(key);
+        }
+        idleContainerCount--;
+        return container;
+    }
+
+    private int idleContainerCount() {
+        idleLock.lock();
+        try {
+            return idleContainerCount;
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    private int idleContainerCount(PoolKey key) {
+        idleLock.lock();
+        try {
+            ArrayDeque<LocalCIContainer> idle = idleContainers.get(key);
+            return idle != null ? idle.size() : 0;
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    private void addIdleContainer(PoolKey key) {
+        if (closed) {
+            return;
+        }
+        try {
+            LocalCIContainer container = createContainer(key);
+            if (closed) {
+                containerService.removeContainer(container.getId());
+                return;
+            }
+            offerIdleContainer(container, false);
+        } catch (RuntimeException e) {
+            // The next lease creates the container synchronously and reports the problem to the build job.
+            System.out.println("Could not warm up container for " + key + ": " + e.getMessage());
+        }
+    }
+
+    private void retireContainer(LocalCIContainer container) {
+        if (container.getBuildTool() == BuildTool.GRADLE) {
+            // Keep the dependencies this container downloaded for the containers that replace it.
+            // Copies the Gradle user home out of the container, keep it off virtual threads.
+            containerService.runBlocking(() -> dependencyCache.publishGradleCache(containerService.getDockerClient(), container.getId()));
+        }
+        containerService.removeContainer(container.getId());
+    }
+
+    private LocalCIContainer createContainer(PoolKey key) {
+        // Mount the shared dependency cache of the build tool and limit the resources of the container. The workspace of a build job is copied into the
+        // container when the job starts, so that a container never sees the submissions of other build jobs.
+        List<Bind> binds = new ArrayList<>(dependencyCache.getBinds(key.buildTool()));
+        HostConfig hostConfig = key.resourceProfile().applyTo(HostConfig.newHostConfig().withBinds(binds));
+        List<String> env = new ArrayList<>(dependencyCache.getEnv(key.buildTool()));
+        env.add("ARTEMIS_BUILD_TOOL=" + key.buildTool().toString().toLowerCase());
+        if (usesGradleDaemon(key.buildTool())) {
+            env.add("ARTEMIS_GRADLE_DAEMON=true");
+        }
+        String containerId = containerService.createAndStartContainer(key.image(), hostConfig, env.toArray(String[]::new));
+        try {
+            // Load the JDK once, so that the first build in this container finds the class data and the file system caches warm.
+            containerService.executeCommand(containerId, "java", "-version");
+        } catch (RuntimeException e) {
+            containerService.removeContainer(containerId);
+            throw e;
+        }
+        return new LocalCIContainer(containerId, key.image(), key.buildTool(), key);
+    }
+
+    private boolean usesGradleDaemon(BuildTool buildTool) {
+        return gradleDaemonEnabled && buildTool == BuildTool.GRADLE;
+    }
+
+    private PoolKey poolKey(String image, BuildTool buildTool, String exerciseId, String participationId, LocalCIResourceProfile resourceProfile) {
+        // Without a daemon, containers do not hold any exercise or participation specific state and can be shared by all exercises.
+        if (!usesGradleDaemon(buildTool)) {
+            return new PoolKey(image, buildTool, null, null, resourceProfile);
+        }
+        return new PoolKey(image, buildTool, exerciseId, participationId, resourceProfile);
+    }
+
+    /**
+     * @param participationId null for fresh containers that can be leased by any participation of the exercise
+     */
+    record PoolKey(String image, BuildTool buildTool, String exerciseId, String participationId, LocalCIResourceProfile resourceProfile) {
+    }
+}
@@ -0,0 +1,303 @@
+package org.example;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.CreateContainerResponse;
+import com.github.dockerjava.api.command.ExecCreateCmdResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.exception.NotModifiedException;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Frame;
+import com.github.dockerjava.api.model.HostConfig;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Thin wrapper around the {@link DockerClient} calls needed to manage build containers.
+ * <p>
+ * docker-java 3.2 reads the Docker socket through {@code Channels.newInputStream(SocketChannel)}, whose reads synchronize on the stream and on the blocking
+ * lock of the channel. A virtual thread reading the socket is therefore pinned to its carrier for as long as it waits for Docker. So that virtual workers
+ * (see {@link LocalCIThreadMode#VIRTUAL}) never wait for Docker pinned, the calls that can block for long run on platform threads: the output of commands is
+ * read by the callback thread of docker-java, and copying, starting and stopping containers runs on a pool of platform threads. The workers wait for these
+ * threads, which unmounts a virtual thread. Short request-response calls, e.g. creating an exec, still run on the calling thread.
+ */
+public class LocalCIContainerService {
+
+    // Label that marks containers created by the local CI, so they can be told apart from other containers on the host. The value is the name of the agent that
+    // created the container, so that agents sharing a Docker host only remove their own containers.
+    public static final String LOCAL_CI_LABEL = "artemis.local-ci";
+
+    // Time the main process of a container gets to exit after SIGTERM before it is killed.
+    private static final int STOP_TIMEOUT_SECONDS = 5;
+
+    // How long the ID of an image is reused before it is looked up again, e.g. to notice that the image was pulled in a new version.
+    private static final long IMAGE_ID_TTL_MILLIS = 60_000;
+
+    private final DockerClient dockerClient;
+
+    private final String agentName;
+
+    private final LocalCIBuildMetrics metrics;
+
+    // Runs the calls that block on the Docker socket for long if the workers are virtual threads, null if the workers are platform threads anyway.
+    private final ExecutorService blockingCallExecutor;
+
+    private final Map<String, ImageId> imageIds = new ConcurrentHashMap<>();
+
+    public LocalCIContainerService(DockerClient dockerClient, String agentName, LocalCIBuildMetrics metrics, LocalCIThreadMode threadMode) {
+        this.dockerClient = dockerClient;
+        this.agentName = agentName;
+        this.metrics = metrics;
+        if (threadMode.effective() == LocalCIThreadMode.VIRTUAL) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.blockingCallExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "local-ci-agent-" + agentName + "-docker-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.blockingCallExecutor = null;
+        }
+    }
+
+    public DockerClient getDockerClient() {
+        return dockerClient;
+    }
+
+    /**
+     * Returns the ID of the local image with the given name. The ID is the digest of the image configuration and changes whenever the content of the image changes.
+     */
+    public String getImageId(String image) {
+        ImageId imageId = imageIds.get(image);
+        if (imageId == null || imageId.resolvedAtMillis() < System.currentTimeMillis() - IMAGE_ID_TTL_MILLIS) {
+            imageId = new ImageId(dockerClient.inspectImageCmd(image).exec().getId(), System.currentTimeMillis());
+            imageIds.put(image, imageId);
+        }
+        return imageId.id();
+    }
+
+    /**
+     * Creates and starts an idle container from the given image. The main process of the container does nothing, the actual work is done via
+     * {@link #executeCommandAsync(String, String...)}.
+     */
+    public String createAndStartContainer(String image, HostConfig hostConfig, String... env) {
+        long createStartedNanos = System.nanoTime();
+        CreateContainerResponse container = dockerClient.createContainerCmd(image)
+                // Run an init process as PID 1 that forwards signals, otherwise the main process ignores SIGTERM and stopping always runs into the timeout.
+                .withHostConfig(hostConfig.withInit(true))
+                .withLabels(Map.of(LOCAL_CI_LABEL, agentName))
+                .withEnv(env)
+                // Keep the container running until it is removed, so that it can be reused for several build jobs.
+                .withCmd("tail", "-f", "/dev/null")
+                .exec();
+        metrics.recordSince(LocalCIBuildMetrics.Stage.CONTAINER_CREATE, createStartedNanos);
+        try {
+            long startStartedNanos = System.nanoTime();
+            runBlocking(() -> dockerClient.startContainerCmd(container.getId()).exec());
+            metrics.recordSince(LocalCIBuildMetrics.Stage.CONTAINER_START, startStartedNanos);
+        } catch (RuntimeException e) {
+            removeContainer(container.getId());
+            throw e;
+        }
+        return container.getId();
+    }
+
+    /**
+     * Runs the given command inside the container without blocking and discards its output.
+     *
+     * @return a future that completes with the exit code of the command once it has finished
+     */
+    public CompletableFuture<Long> executeCommandAsync(String containerId, String... command) {
+        return executeCommandAsync(containerId, frame -> {
+        }, command);
+    }
+
+    /**
+     * Runs the given command inside the container without blocking.
+     *
+     * @param output receives the output of the command frame by frame while it is running, on the thread reading the output
+     * @return a future that completes with the exit code of the command once it has finished
+     */
+    public CompletableFuture<Long> executeCommandAsync(String containerId, Consumer<Frame> output, String... command) {
+        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(containerId).withAttachStdout(true).withAttachStderr(true).withCmd(command).exec();
+
+        CompletableFuture<Long> exitCode = new CompletableFuture<>();
+        dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ResultCallback.Adapter<Frame>() {
+            @Override
+            public void onNext(Frame frame) {
+                output.accept(frame);
+            }
+
+            @Override
+            public void onComplete() {
+                // The output stream ended, the command has finished.
+                try {
+                    exitCode.complete(dockerClient.inspectExecCmd(execCreateCmdResponse.getId()).exec().getExitCodeLong());
+                } catch (RuntimeException e) {
+                    exitCode.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                exitCode.completeExceptionally(throwable);
+            }
+        });
+        return exitCode;
+    }
+
+    /**
+     * Runs the given command inside the container and blocks until it has completed. The output of the command is discarded.
+     *
+     * @return the exit code of the command
+     */
+    public long executeCommand(String containerId, String... command) {
+        return executeCommand(containerId, frame -> {
+        }, command);
+    }
+
+    /**
+     * Runs the given command inside the container and blocks until it has completed.
+     *
+     * @param output receives the output of the command frame by frame while it is running
+     * @return the exit code of the command
+     */
+    public long executeCommand(String containerId, Consumer<Frame> output, String... command) {
+        // The output is read on the callback thread of docker-java, waiting for the future unmounts a virtual thread.
+        try {
+            Long exitCode = executeCommandAsync(containerId, output, command).get();
+            // Docker does not know the exit code if the exec process was killed from outside.
+            return exitCode != null ? exitCode : -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LocalCIException("Interrupted while waiting for command to complete", e);
+        } catch (ExecutionException e) {
+            throw new LocalCIException("Command " + String.join(" ", command) + " failed in container " + containerId, e.getCause());
+        }
+    }
+
+    /**
+     * Copies the content of the given host directory, or the given host file, into the directory remotePath inside the container.
+     */
+    public void copyToContainer(String containerId, Path hostPath, String remotePath) {
+        runBlocking(() -> dockerClient.copyArchiveToContainerCmd(containerId)
+                .withHostResource(hostPath.toString())
+                .withDirChildrenOnly(true)
+                .withRemotePath(remotePath)
+                .exec());
+    }
+
+    /**
+     * Runs a call that can block on the Docker socket for long, e.g. one that reads an archive copied out of a container. With virtual workers the call runs on a
+     * platform thread while the calling thread waits.
+     */
+    public <T> T callBlocking(Callable<T> call) throws Exception {
+        if (blockingCallExecutor == null) {
+            return call.call();
+        }
+        Future<T> future = blockingCallExecutor.submit(call);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new LocalCIException("Interrupted while waiting for the Docker host", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception exception) {
+                throw exception;
+            }
+            throw (Error) e.getCause();
+        }
+    }
+
+    /**
+     * Like {@link #callBlocking(Callable)}, for calls that only throw unchecked exceptions.
+     */
+    public void runBlocking(Runnable call) {
+        try {
+            callBlocking(() -> {
+                call.run();
+                return null;
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Runnables cannot throw checked exceptions.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stops the platform threads of the blocking calls. Must only be called once no build job is running anymore.
+     */
+    public void close() {
+        if (blockingCallExecutor != null) {
+            blockingCallExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Stops the container, killing it if it does not stop within the timeout, and removes it.
+     */
+    public void removeContainer(String containerId) {
+        // Waits for the container to stop for up to the stop timeout.
+        runBlocking(() -> removeContainerOnCallingThread(containerId));
+    }
+
+    private void removeContainerOnCallingThread(String containerId) {
+        try {
+            dockerClient.stopContainerCmd(containerId).withTimeout(STOP_TIMEOUT_SECONDS).exec();
+        } catch (NotFoundException | NotModifiedException e) {
+            // Already removed or already stopped.
+        } catch (RuntimeException e) {
+            System.out.println("Could not stop container " + containerId + ", removing it forcefully: " + e.getMessage());
+        }
+        try {
+            dockerClient.removeContainerCmd(containerId).withForce(true).withRemoveVolumes(true).exec();
+        } catch (NotFoundException e) {
+            // Already removed.
+        }
+    }
+
+    /**
+     * Kills and removes the container without giving its processes the chance to shut down, e.g. when a build job exceeded its timeout.
+     */
+    public void killContainer(String containerId) {
+        // Waits until Docker has killed the processes and removed the file system of the container.
+        runBlocking(() -> {
+            try {
+                dockerClient.removeContainerCmd(containerId).withForce(true).withRemoveVolumes(true).exec();
+            } catch (NotFoundException e) {
+                // Already removed.
+            }
+        });
+    }
+
+    /**
+     * Removes all containers of the agent that are still around, e.g. because the previous process crashed before it could remove them.
+     * Must only be called on start-up of the agent, before any build containers are created.
+     *
+     * @return the number of removed containers
+     */
+    public int removeLeakedContainers() {
+        List<Container> containers = dockerClient.listContainersCmd().withShowAll(true).withLabelFilter(Map.of(LOCAL_CI_LABEL, agentName)).exec();
+        for (Container container : containers) {
+            removeContainer(container.getId());
+        }
+        return containers.size();
+    }
+
+    private record ImageId(String id, long resolvedAtMillis) {
+    }
+}
@@ -0,0 +1,336 @@
+package org.example;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.AccessMode;
+import com.github.dockerjava.api.model.Bind;
+import com.github.dockerjava.api.model.Volume;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Persistent dependency caches on the host that are mounted into every build container, so that the dependencies of an exercise are only downloaded
+ * once per host instead of once per build.
+ * <p>
+ * Maven: the local repository is shared read-write. Concurrent builds synchronize on file locks in the repository (Maven resolver named locks).
+ * <p>
+ * Gradle: the Gradle cache does not support being written by processes in different containers, so the shared cache is mounted read-only as a
+ * Gradle read-only dependency cache. Every container resolves missing dependencies into its own Gradle user home, which is kept while the container is
+ * reused. Gradle only uses the downloaded files of a read-only cache through the metadata indexes next to them, and the indexes of different Gradle user
+ * homes cannot be combined. The shared cache is therefore a snapshot of the complete dependency cache of a single container, taken when the container is
+ * retired. A snapshot replaces the current one if it holds more dependencies, or if the current one exceeds the maximum size.
+ */
+public class LocalCIDependencyCache implements AutoCloseable {
+
+    private static final String MAVEN_REPOSITORY_IN_CONTAINER = "/root/.m2/repository";
+
+    private static final String GRADLE_READ_ONLY_CACHE_IN_CONTAINER = "/gradle-read-only-cache";
+
+    private static final String GRADLE_MODULES_CACHE_IN_CONTAINER = "/root/.gradle/caches/modules-2";
+
+    // The downloaded files, stored by group, module, version and checksum. The metadata-* directories next to it are binary indexes of one Gradle user home.
+    private static final String GRADLE_FILES_DIRECTORY = "files-2.1";
+
+    // Relative symbolic link to the snapshot the containers read, so that it resolves inside the containers as well. Replaced atomically by a new snapshot.
+    private static final String GRADLE_CURRENT_SNAPSHOT = "current";
+
+    private static final String GRADLE_SNAPSHOT_PREFIX = "snapshot-";
+
+    private static final String GRADLE_STAGING_PREFIX = ".staging-";
+
+    // Dependencies that were used within this time are never evicted, so that a running build does not lose files it is about to read.
+    private static final Duration EVICTION_GRACE_PERIOD = Duration.ofHours(1);
+
+    private final Path mavenRepositoryPath;
+
+    private final Path gradleReadOnlyCachePath;
+
+    private final long maxSizeBytes;
+
+    // Guards the current Gradle snapshot. Only held while snapshots are compared and switched, not while a snapshot is copied out of a container.
+    private final ReentrantLock gradleSnapshotLock = new ReentrantLock();
+
+    private GradleSnapshot gradleSnapshot;
+
+    private final ScheduledExecutorService cleanupExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "local-ci-dependency-cache-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param cacheRootPath directory on the host that holds the caches of all build tools
+     * @param maxSizeBytes  size per build tool above which the least recently used dependencies are evicted
+     */
+    public LocalCIDependencyCache(Path cacheRootPath, long maxSizeBytes) {
+        this.mavenRepositoryPath = cacheRootPath.resolve("maven").resolve("repository").toAbsolutePath();
+        this.gradleReadOnlyCachePath = cacheRootPath.resolve("gradle").toAbsolutePath();
+        this.maxSizeBytes = maxSizeBytes;
+        try {
+            Files.createDirectories(mavenRepositoryPath);
+            Files.createDirectories(gradleReadOnlyCachePath);
+            this.gradleSnapshot = loadGradleSnapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create dependency cache in " + cacheRootPath, e);
+        }
+    }
+
+    /**
+     * Runs the size-bounded eviction periodically in the background.
+     */
+    public void startCleanup(Duration interval) {
+        cleanupExecutor.scheduleWithFixedDelay(this::evict, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public List<Bind> getBinds(BuildTool buildTool) {
+        if (buildTool == BuildTool.MAVEN) {
+            return List.of(new Bind(mavenRepositoryPath.toString(), new Volume(MAVEN_REPOSITORY_IN_CONTAINER)));
+        }
+        return List.of(new Bind(gradleReadOnlyCachePath.toString(), new Volume(GRADLE_READ_ONLY_CACHE_IN_CONTAINER), AccessMode.ro));
+    }
+
+    public List<String> getEnv(BuildTool buildTool) {
+        if (buildTool == BuildTool.MAVEN) {
+            // Let concurrent Maven builds coordinate through lock files next to the artifacts in the shared repository.
+            return List.of("MAVEN_OPTS=-Daether.syncContext.named.factory=file-lock -Daether.syncContext.named.nameMapper=file-gav");
+        }
+        return List.of("GRADLE_RO_DEP_CACHE=" + GRADLE_READ_ONLY_CACHE_IN_CONTAINER + "/" + GRADLE_CURRENT_SNAPSHOT);
+    }
+
+    /**
+     * Takes a snapshot of the dependency cache of the Gradle user home of a build container, and makes it the shared read-only cache if it holds more
+     * dependencies than the current one. Builds reading the current snapshot at the same time are not affected, the snapshot is switched atomically and the
+     * replaced one is only deleted after the eviction grace period.
+     */
+    public void publishGradleCache(DockerClient dockerClient, String containerId) {
+        try (InputStream archive = dockerClient.copyArchiveFromContainerCmd(containerId, GRADLE_MODULES_CACHE_IN_CONTAINER).exec()) {
+            publishGradleCache(archive);
+        } catch (NotFoundException e) {
+            // The container did not download anything.
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not publish Gradle cache of container " + containerId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param archive tar archive of the directory modules-2 of a Gradle user home
+     */
+    void publishGradleCache(InputStream archive) throws IOException {
+        Path stagingPath = Files.createTempDirectory(gradleReadOnlyCachePath, GRADLE_STAGING_PREFIX);
+        try {
+            long fileCount = 0;
+            long sizeBytes = 0;
+            TarArchiveInputStream tarInputStream = new TarArchiveInputStream(archive);
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInputStream.getNextTarEntry()) != null) {
+                String name = tarEntry.getName();
+                // Lock files and the clean-up state belong to the Gradle user home of the container, a read-only cache must not contain them.
+                if (!name.startsWith("modules-2/") || name.contains("..") || name.endsWith(".lock") || name.endsWith("/gc.properties")) {
+                    continue;
+                }
+                Path targetPath = stagingPath.resolve(name);
+                if (tarEntry.isDirectory()) {
+                    Files.createDirectories(targetPath);
+                    continue;
+                }
+                Files.createDirectories(targetPath.getParent());
+                copy(tarInputStream, targetPath);
+                sizeBytes += tarEntry.getSize();
+                if (name.startsWith("modules-2/" + GRADLE_FILES_DIRECTORY + "/")) {
+                    fileCount++;
+                }
+            }
+            gradleSnapshotLock.lock();
+            try {
+                if (fileCount > gradleSnapshot.fileCount() || gradleSnapshot.sizeBytes() > maxSizeBytes) {
+                    gradleSnapshot = switchGradleSnapshot(stagingPath, new GradleSnapshot(gradleSnapshot.number() + 1, fileCount, sizeBytes));
+                    stagingPath = null;
+                }
+            } finally {
+                gradleSnapshotLock.unlock();
+            }
+        } finally {
+            if (stagingPath != null) {
+                deleteDirectory(stagingPath);
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used dependencies of every build tool until the cache is below its maximum size.
+     */
+    public void evict() {
+        evict(mavenRepositoryPath);
+        // Deleting single dependencies would leave the metadata of the snapshot inconsistent, the size of the Gradle cache is bounded by replacing snapshots.
+        deleteReplacedGradleSnapshots();
+    }
+
+    @Override
+    public void close() {
+        cleanupExecutor.shutdownNow();
+    }
+
+    private GradleSnapshot loadGradleSnapshot() throws IOException {
+        // Left behind by a crash, or by earlier versions that merged single files into the directory modules-2.
+        try (Stream<Path> paths = Files.list(gradleReadOnlyCachePath)) {
+            paths.filter(path -> path.getFileName().toString().startsWith(GRADLE_STAGING_PREFIX) || path.getFileName().toString().equals("modules-2"))
+                    .forEach(LocalCIDependencyCache::deleteDirectory);
+        }
+        Path currentPath = gradleReadOnlyCachePath.resolve(GRADLE_CURRENT_SNAPSHOT);
+        if (Files.isSymbolicLink(currentPath) && Files.isDirectory(currentPath)) {
+            String snapshotName = Files.readSymbolicLink(currentPath).toString();
+            try {
+                int number = Integer.parseInt(snapshotName.substring(GRADLE_SNAPSHOT_PREFIX.length()));
+                long fileCount = 0;
+                long sizeBytes = 0;
+                try (Stream<Path> files = Files.walk(currentPath.resolve("modules-2")).filter(Files::isRegularFile)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        sizeBytes += Files.size(file);
+                        if (file.startsWith(currentPath.resolve("modules-2").resolve(GRADLE_FILES_DIRECTORY))) {
+                            fileCount++;
+                        }
+                    }
+                }
+                return new GradleSnapshot(number, fileCount, sizeBytes);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                System.out.println("Replacing unknown Gradle snapshot " + snapshotName);
+            }
+        }
+        // Start with an empty snapshot, so that the read-only cache of the containers always exists.
+        Path stagingPath = Files.createTempDirectory(gradleReadOnlyCachePath, GRADLE_STAGING_PREFIX);
+        Files.createDirectories(stagingPath.resolve("modules-2"));
+        return switchGradleSnapshot(stagingPath, new GradleSnapshot(0, 0, 0));
+    }
+
+    private GradleSnapshot switchGradleSnapshot(Path stagingPath, GradleSnapshot snapshot) throws IOException {
+        Path currentPath = gradleReadOnlyCachePath.resolve(GRADLE_CURRENT_SNAPSHOT);
+        String snapshotName = GRADLE_SNAPSHOT_PREFIX + snapshot.number();
+        if (Files.exists(gradleReadOnlyCachePath.resolve(snapshotName))) {
+            // Numbers are reused after the current link was lost.
+            deleteDirectory(gradleReadOnlyCachePath.resolve(snapshotName));
+        }
+        Files.move(stagingPath, gradleReadOnlyCachePath.resolve(snapshotName), StandardCopyOption.ATOMIC_MOVE);
+        Path replacedPath = Files.isSymbolicLink(currentPath) ? currentPath.toRealPath() : null;
+        Path linkPath = gradleReadOnlyCachePath.resolve(GRADLE_STAGING_PREFIX + GRADLE_CURRENT_SNAPSHOT);
+        Files.deleteIfExists(linkPath);
+        Files.createSymbolicLink(linkPath, Path.of(snapshotName));
+        // Renaming replaces the previous link atomically.
+        Files.move(linkPath, currentPath, StandardCopyOption.ATOMIC_MOVE);
+        if (replacedPath != null) {
+            // Marks when the snapshot was replaced, for deleteReplacedGradleSnapshots.
+            Files.setLastModifiedTime(replacedPath, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        return snapshot;
+    }
+
+    private void deleteReplacedGradleSnapshots() {
+        long replacedThreshold = System.currentTimeMillis() - EVICTION_GRACE_PERIOD.toMillis();
+        String currentName;
+        gradleSnapshotLock.lock();
+        try {
+            currentName = GRADLE_SNAPSHOT_PREFIX + gradleSnapshot.number();
+        } finally {
+            gradleSnapshotLock.unlock();
+        }
+        // A snapshot replaced after the name was read was marked just now, it is not deleted either.
+        try (Stream<Path> paths = Files.list(gradleReadOnlyCachePath)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String name = path.getFileName().toString();
+                // Builds that started before the snapshot was replaced may still read it.
+                if (name.startsWith(GRADLE_SNAPSHOT_PREFIX) && !name.equals(currentName) && Files.getLastModifiedTime(path).toMillis() < replacedThreshold) {
+                    deleteDirectory(path);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not clean up Gradle dependency cache " + gradleReadOnlyCachePath + ": " + e.getMessage());
+        }
+    }
+
+    private void evict(Path cachePath) {
+        // A dependency is a directory that directly contains files, e.g. group/artifact/version in the Maven repository.
+        List<CachedDependency> dependencies = new ArrayList<>();
+        long totalSize = 0;
+        try (Stream<Path> directories = Files.walk(cachePath).filter(Files::isDirectory)) {
+            for (Path directory : (Iterable<Path>) directories::iterator) {
+                CachedDependency dependency = readDependency(directory);
+                if (dependency != null) {
+                    dependencies.add(dependency);
+                    totalSize += dependency.sizeBytes();
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Could not determine size of dependency cache " + cachePath + ": " + e.getMessage());
+            return;
+        }
+
+        long lastUseThreshold = System.currentTimeMillis() - EVICTION_GRACE_PERIOD.toMillis();
+        dependencies.sort(Comparator.comparingLong(CachedDependency::lastUsedMillis));
+        for (CachedDependency dependency : dependencies) {
+            if (totalSize <= maxSizeBytes || dependency.lastUsedMillis() > lastUseThreshold) {
+                break;
+            }
+            deleteDirectory(dependency.path());
+            totalSize -= dependency.sizeBytes();
+        }
+    }
+
+    private static CachedDependency readDependency(Path directory) throws IOException {
+        long sizeBytes = 0;
+        long lastUsedMillis = 0;
+        boolean containsFiles = false;
+        try (Stream<Path> children = Files.list(directory)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    containsFiles = true;
+                    sizeBytes += attributes.size();
+                    lastUsedMillis = Math.max(lastUsedMillis, Math.max(attributes.lastAccessTime().toMillis(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+        return containsFiles ? new CachedDependency(directory, sizeBytes, lastUsedMillis) : null;
+    }
+
+    private static void copy(InputStream inputStream, Path targetPath) throws IOException {
+        // Do not close the input stream, it is the stream of the whole tar archive.
+        try (var outputStream = Files.newOutputStream(targetPath)) {
+            inputStream.transferTo(outputStream);
+        }
+    }
+
+    private static void deleteDirectory(Path path) {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Could not delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    private record CachedDependency(Path path, long sizeBytes, long lastUsedMillis) {
+    }
+
+    /**
+     * @param fileCount the number of downloaded files, i.e. roughly the number of dependencies
+     */
+    private record GradleSnapshot(int number, long fileCount, long sizeBytes) {
+    }
+}
@@ -0,0 +1,53 @@
+package org.example;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.core.DefaultDockerClientConfig;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.core.DockerClientImpl;
+import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
+import com.github.dockerjava.transport.DockerHttpClient;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the {@link DockerClient}s of the local CI on top of the Apache HttpClient 5 transport, which keeps a pool of persistent connections per Docker daemon
+ * instead of opening a connection per request. Clients are shared: asking for the same settings twice returns the same client, so that all build jobs and
+ * agents driving the same daemon share one connection pool.
+ */
+public class LocalCIDockerClientFactory implements AutoCloseable {
+
+    private final Map<LocalCIDockerClientSettings, DockerClient> dockerClients = new ConcurrentHashMap<>();
+
+    public DockerClient getDockerClient(LocalCIDockerClientSettings settings) {
+        return dockerClients.computeIfAbsent(settings, LocalCIDockerClientFactory::createDockerClient);
+    }
+
+    private static DockerClient createDockerClient(LocalCIDockerClientSettings settings) {
+        DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder().withDockerHost(settings.dockerHost()).build();
+        DockerHttpClient httpClient = new ApacheDockerHttpClient.Builder()
+                .dockerHost(config.getDockerHost())
+                .sslConfig(config.getSSLConfig())
+                .maxConnections(settings.maxConnections())
+                .connectionTimeout(settings.connectionTimeout())
+                .responseTimeout(settings.responseTimeout())
+                .build();
+        return DockerClientImpl.getInstance(config, httpClient);
+    }
+
+    /**
+     * Closes all clients and their connections. The clients must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (DockerClient dockerClient : dockerClients.values()) {
+            try {
+                dockerClient.close();
+            } catch (IOException e) {
+                System.out.println("Could not close Docker client: " + e.getMessage());
+            }
+        }
+        dockerClients.clear();
+    }
+}
@@ -0,0 +1,37 @@
+package org.example;
+
+import java.time.Duration;
+
+/**
+ * Settings of the HTTP connection pool of a {@link com.github.dockerjava.api.DockerClient}.
+ *
+ * @param dockerHost        URI of the Docker daemon, e.g. "unix:///var/run/docker.sock" or "tcp://build-host:2375"
+ * @param maxConnections    maximum number of open connections to the daemon. Every running exec and every copy holds a connection for as long as it streams,
+ *                          so this must be well above the number of concurrent builds
+ * @param connectionTimeout how long to wait for a connection to the daemon to be established
+ * @param responseTimeout   how long to wait for data on a connection, or null to wait forever. Exec streams are silent while a build does not print anything, so a
+ *                          response timeout shorter than the build timeouts aborts builds
+ */
+public record LocalCIDockerClientSettings(String dockerHost, int maxConnections, Duration connectionTimeout, Duration responseTimeout) {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 128;
+
+    private static final Duration DEFAULT_CONNECTION_TIMEOUT = Duration.ofSeconds(10);
+
+    public LocalCIDockerClientSettings {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Invalid maximum number of connections: " + maxConnections);
+        }
+    }
+
+    /**
+     * Settings for the Docker daemon on this machine.
+     */
+    public static LocalCIDockerClientSettings local() {
+        return forDockerHost(System.getProperty("os.name").toLowerCase().contains("windows") ? "tcp://localhost:2375" : "unix:///var/run/docker.sock");
+    }
+
+    public static LocalCIDockerClientSettings forDockerHost(String dockerHost) {
+        return new LocalCIDockerClientSettings(dockerHost, DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECTION_TIMEOUT, null);
+    }
+}
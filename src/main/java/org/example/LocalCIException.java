@@ -0,0 +1,14 @@
+package org.example;
+
+public class LocalCIException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LocalCIException(String message) {
+        super(message);
+    }
+
+    public LocalCIException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
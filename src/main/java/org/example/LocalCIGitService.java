@@ -0,0 +1,105 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the bare repositories on the host without starting a build container.
+ */
+public class LocalCIGitService {
+
+    private static final String BRANCH_REF_PREFIX = "ref: refs/heads/";
+
+    /**
+     * Returns the hash of the commit the default branch of the bare repository points to. The default branch is the branch HEAD refers to, i.e. the branch
+     * a clone of the repository checks out.
+     */
+    public String resolveCommitHash(Path repositoryPath) throws IOException {
+        String head = Files.readString(repositoryPath.resolve("HEAD"), StandardCharsets.UTF_8).strip();
+        if (head.startsWith(BRANCH_REF_PREFIX)) {
+            return resolveCommitHash(repositoryPath, head.substring(BRANCH_REF_PREFIX.length()));
+        }
+        // A detached HEAD contains the hash of the commit itself.
+        if (head.matches("[0-9a-f]{40}|[0-9a-f]{64}")) {
+            return head;
+        }
+        throw new IOException("Unexpected HEAD in " + repositoryPath + ": " + head);
+    }
+
+    /**
+     * Returns the hash of the commit the given branch of the bare repository points to.
+     * Looks at the loose ref first and falls back to the packed refs, which is where Git moves refs on garbage collection.
+     */
+    public String resolveCommitHash(Path repositoryPath, String branch) throws IOException {
+        String refName = "refs/heads/" + branch;
+        Path looseRef = repositoryPath.resolve(refName);
+        if (Files.isRegularFile(looseRef)) {
+            return Files.readString(looseRef, StandardCharsets.UTF_8).strip();
+        }
+        Path packedRefs = repositoryPath.resolve("packed-refs");
+        if (Files.isRegularFile(packedRefs)) {
+            List<String> lines = Files.readAllLines(packedRefs, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                // Lines have the format "<hash> <ref name>", comments start with "#" and peeled tags with "^".
+                if (line.startsWith("#") || line.startsWith("^")) {
+                    continue;
+                }
+                int separator = line.indexOf(' ');
+                if (separator > 0 && line.substring(separator + 1).equals(refName)) {
+                    return line.substring(0, separator);
+                }
+            }
+        }
+        throw new IOException("Branch " + branch + " does not exist in " + repositoryPath);
+    }
+
+    /**
+     * Writes the files of the given commit of the bare repository into the target directory, without cloning the repository.
+     * The files are read directly from the object store of the bare repository, which is shared by all build jobs. The target directory does not become a Git
+     * repository. A temporary index file inside the target directory is used, so that concurrent checkouts of the same repository do not interfere.
+     */
+    public void checkout(Path repositoryPath, String commitHash, Path targetPath, Duration timeout) throws IOException {
+        Files.createDirectories(targetPath);
+        Path indexFile = targetPath.resolve(".artemis-index");
+        try {
+            runGit(repositoryPath, targetPath, indexFile, timeout, "read-tree", commitHash);
+            runGit(repositoryPath, targetPath, indexFile, timeout, "checkout-index", "--all", "--force");
+        } finally {
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    private void runGit(Path repositoryPath, Path workTreePath, Path indexFile, Duration timeout, String... arguments) throws IOException {
+        List<String> command = new ArrayList<>(List.of("git", "--git-dir=" + repositoryPath, "--work-tree=" + workTreePath));
+        command.addAll(List.of(arguments));
+        // Write the output to a file instead of a pipe, so that the process never blocks on a full pipe and the timeout applies even if git hangs.
+        Path outputFile = Files.createTempFile("git-", ".log");
+        ProcessBuilder processBuilder = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(outputFile.toFile());
+        processBuilder.environment().put("GIT_INDEX_FILE", indexFile.toString());
+        Process process = null;
+        try {
+            process = processBuilder.start();
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("git " + arguments[0] + " timed out for " + repositoryPath);
+            }
+            if (process.exitValue() != 0) {
+                String output = Files.readString(outputFile, StandardCharsets.UTF_8);
+                throw new IOException("git " + arguments[0] + " failed for " + repositoryPath + ": " + output.strip());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running git " + arguments[0], e);
+        } finally {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(outputFile);
+        }
+    }
+}
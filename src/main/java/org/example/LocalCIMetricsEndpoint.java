@@ -0,0 +1,75 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves the metrics of a {@link LocalCIBuildJobExecutor} at "/metrics" in the Prometheus text exposition format: the stage histograms of
+ * {@link LocalCIBuildMetrics} plus the current queue depth, waiting time and running build jobs.
+ */
+public class LocalCIMetricsEndpoint implements AutoCloseable {
+
+    private final LocalCIBuildJobExecutor executor;
+
+    private final HttpServer server;
+
+    public LocalCIMetricsEndpoint(LocalCIBuildJobExecutor executor, InetSocketAddress address) throws IOException {
+        this.executor = executor;
+        this.server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    /**
+     * Returns the address the endpoint listens on, with the actual port if it was started on port 0.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+    }
+
+    String render() {
+        StringBuilder output = new StringBuilder();
+        executor.getMetrics().writePrometheus(output);
+
+        Map<LocalCIBuildPriority, LocalCIBuildScheduler.Statistics> statistics = executor.getQueueStatistics();
+        output.append("# HELP local_ci_queued_build_jobs Build jobs waiting for an agent.\n");
+        output.append("# TYPE local_ci_queued_build_jobs gauge\n");
+        statistics.forEach((priority, queue) -> output.append("local_ci_queued_build_jobs{priority=\"").append(priority.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                .append(queue.queueDepth()).append('\n'));
+        output.append("# HELP local_ci_oldest_queued_build_job_seconds How long the oldest queued build job has been waiting.\n");
+        output.append("# TYPE local_ci_oldest_queued_build_job_seconds gauge\n");
+        statistics.forEach((priority, queue) -> output.append("local_ci_oldest_queued_build_job_seconds{priority=\"").append(priority.name().toLowerCase(Locale.ROOT))
+                .append("\"} ").append(queue.oldestWait().toNanos() / 1e9).append('\n'));
+        output.append("# HELP local_ci_running_build_jobs Build jobs running on the agents.\n");
+        output.append("# TYPE local_ci_running_build_jobs gauge\n");
+        output.append("local_ci_running_build_jobs ").append(executor.getRunningBuildJobs()).append('\n');
+        return output.toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+import com.github.dockerjava.api.model.HostConfig;
+
+import java.util.Map;
+
+/**
+ * Resource limits of a build container, so that a single build cannot slow down the other builds running on the same host.
+ *
+ * @param cpus             number of CPUs the container may use, fractions are allowed
+ * @param cpusetCpus       CPUs the container is pinned to, e.g. "0-3", or null to not pin the container
+ * @param memoryBytes      memory limit, including the tmpfs of the build directory
+ * @param memorySwapBytes  memory plus swap limit, equal to the memory limit to disable swapping
+ * @param pidsLimit        maximum number of processes and threads, protects the host from fork bombs
+ * @param tmpfsSizeBytes   size of the in-memory file system for the build directory, 0 to build on the container file system
+ */
+public record LocalCIResourceProfile(double cpus, String cpusetCpus, long memoryBytes, long memorySwapBytes, long pidsLimit, long tmpfsSizeBytes) {
+
+    private static final long MEGABYTE = 1024L * 1024;
+
+    // The directory the script clones the repositories into and builds them in.
+    private static final String BUILD_DIRECTORY = "/repositories";
+
+    public static final LocalCIResourceProfile GRADLE_DEFAULT = new LocalCIResourceProfile(2, null, 3072 * MEGABYTE, 3072 * MEGABYTE, 1024, 512 * MEGABYTE);
+
+    public static final LocalCIResourceProfile MAVEN_DEFAULT = new LocalCIResourceProfile(2, null, 2048 * MEGABYTE, 2048 * MEGABYTE, 1024, 512 * MEGABYTE);
+
+    public static LocalCIResourceProfile forBuildTool(BuildTool buildTool) {
+        return buildTool == BuildTool.GRADLE ? GRADLE_DEFAULT : MAVEN_DEFAULT;
+    }
+
+    public HostConfig applyTo(HostConfig hostConfig) {
+        hostConfig.withNanoCPUs((long) (cpus * 1_000_000_000L))
+                .withMemory(memoryBytes)
+                .withMemorySwap(memorySwapBytes)
+                .withPidsLimit(pidsLimit);
+        if (cpusetCpus != null) {
+            hostConfig.withCpusetCpus(cpusetCpus);
+        }
+        if (tmpfsSizeBytes > 0) {
+            hostConfig.withTmpFs(Map.of(BUILD_DIRECTORY, "rw,exec,size=" + tmpfsSizeBytes));
+        }
+        return hostConfig;
+    }
+}
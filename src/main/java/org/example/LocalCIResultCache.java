@@ -0,0 +1,245 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Results of finished builds, keyed by everything that determines the result of a build: the commits of the assignment and the test repository, the build tool and
+ * the image of the build container. A build job for a key that is in the cache does not have to run at all.
+ * <p>
+ * The cache keeps the most recently used results up to a maximum number of entries. Optionally it writes every result to a directory, so that the cache survives
+ * restarts. The directory always holds the same entries as the memory. The files contain the key followed by the result in the binary form of the
+ * {@link LocalCIBuildJobSerializer}.
+ * <p>
+ * In memory the results are kept as {@link LocalCIBuildResult}s. The results for the same version of the test repository, i.e. of the same exercise, share a
+ * {@link LocalCITestNameDictionary}, which is dropped together with the last of these results.
+ */
+public class LocalCIResultCache {
+
+    private static final String FILE_EXTENSION = ".result";
+
+    private final int maxEntries;
+
+    // Null if the cache only lives in memory.
+    private final Path persistencePath;
+
+    private final LinkedHashMap<Key, LocalCIBuildResult> entries;
+
+    // By the hash of the test repository commit.
+    private final Map<String, SharedDictionary> dictionaries = new HashMap<>();
+
+    private final LocalCIBuildJobSerializer serializer = new LocalCIBuildJobSerializer();
+
+    // Not a monitor: results are written to disk while it is held, which would pin a virtual thread to its carrier.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public LocalCIResultCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    public LocalCIResultCache(int maxEntries, Path persistencePath) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid result cache size: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.persistencePath = persistencePath;
+        // Access order turns the map into an LRU list, the eldest entry is the least recently used one.
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, LocalCIBuildResult> eldest) {
+                if (size() > LocalCIResultCache.this.maxEntries) {
+                    releaseDictionary(eldest.getKey());
+                    deleteFile(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (persistencePath != null) {
+            load();
+        }
+    }
+
+    /**
+     * Returns a new DTO of the cached result, which the caller may change, or null if there is none.
+     */
+    public LocalCIBuildJobDTO get(Key key) {
+        lock.lock();
+        try {
+            LocalCIBuildResult result = entries.get(key);
+            return result != null ? result.toDTO() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the result of a build. Results that do not only depend on the key are not stored: builds that timed out or failed internally, and failed builds
+     * without any test results. These failed before or while compiling, which is often caused by the network, e.g. a dependency that could not be downloaded.
+     */
+    public void put(Key key, LocalCIBuildJobDTO result) {
+        if (!isCacheable(result)) {
+            return;
+        }
+        lock.lock();
+        try {
+            insert(key, result);
+            writeFile(key, result);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isCacheable(LocalCIBuildJobDTO result) {
+        return switch (result.getBuildStatus()) {
+            case SUCCESSFUL -> true;
+            case FAILED -> !isEmpty(result.getFailedTests()) || !isEmpty(result.getSuccessfulTests()) || !isEmpty(result.getSkippedTests());
+            default -> false;
+        };
+    }
+
+    private static boolean isEmpty(List<LocalCITestCaseDTO> tests) {
+        return tests == null || tests.isEmpty();
+    }
+
+    private void insert(Key key, LocalCIBuildJobDTO result) {
+        SharedDictionary dictionary = dictionaries.computeIfAbsent(key.testCommitHash(), testCommitHash -> new SharedDictionary());
+        dictionary.users++;
+        if (entries.put(key, LocalCIBuildResult.of(result, dictionary.dictionary)) != null) {
+            releaseDictionary(key);
+        }
+    }
+
+    private void releaseDictionary(Key key) {
+        SharedDictionary dictionary = dictionaries.get(key.testCommitHash());
+        if (dictionary != null && --dictionary.users == 0) {
+            dictionaries.remove(key.testCommitHash());
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(persistencePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create result cache directory " + persistencePath, e);
+        }
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(persistencePath)) {
+            // Insert the oldest files first, so that they are the first to be evicted.
+            files = paths.filter(path -> path.getFileName().toString().endsWith(FILE_EXTENSION)).sorted(Comparator.comparingLong(LocalCIResultCache::lastModified))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read result cache directory " + persistencePath, e);
+        }
+        for (Path file : files) {
+            try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                Key key = new Key(inputStream.readUTF(), inputStream.readUTF(), BuildTool.valueOf(inputStream.readUTF()), inputStream.readUTF());
+                LocalCIBuildJobDTO result = serializer.readBinary(inputStream);
+                insert(key, result);
+            } catch (IOException | IllegalArgumentException e) {
+                // E.g. written by an incompatible version, the build simply runs again.
+                System.out.println("Could not read cached result " + file + ": " + e.getMessage());
+                deleteFile(file);
+            }
+        }
+    }
+
+    private void writeFile(Key key, LocalCIBuildJobDTO result) {
+        if (persistencePath == null) {
+            return;
+        }
+        Path file = file(key);
+        try {
+            // Write to a temporary file first, so that a crash never leaves a partial entry behind.
+            Path temporaryFile = Files.createTempFile(persistencePath, "result", ".tmp");
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                outputStream.writeUTF(key.assignmentCommitHash());
+                outputStream.writeUTF(key.testCommitHash());
+                outputStream.writeUTF(key.buildTool().name());
+                outputStream.writeUTF(key.imageId());
+                serializer.writeBinary(result, outputStream);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not persist cached result " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void deleteFile(Key key) {
+        if (persistencePath != null) {
+            deleteFile(file(key));
+        }
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Could not delete cached result " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Path file(Key key) {
+        return persistencePath.resolve(key.hash() + FILE_EXTENSION);
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param imageId the ID of the image, which changes whenever the image is rebuilt or pulled in a new version under the same tag
+     */
+    public record Key(String assignmentCommitHash, String testCommitHash, BuildTool buildTool, String imageId) {
+
+        String hash() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                byte[] hash = digest.digest(String.join("/", assignmentCommitHash, testCommitHash, buildTool.name(), imageId).getBytes(StandardCharsets.UTF_8));
+                return String.format("%064x", new BigInteger(1, hash));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+
+    private static class SharedDictionary {
+
+        private final LocalCITestNameDictionary dictionary = new LocalCITestNameDictionary();
+
+        // Number of entries using the dictionary.
+        private int users = 0;
+    }
+}
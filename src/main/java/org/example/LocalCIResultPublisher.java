@@ -0,0 +1,527 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Delivers the results of build jobs to the LMS in the background. Publishing a result only appends it to a spool file and a queue, a sender thread posts
+ * the queued results in batches as a JSON array of {"resultId": ..., "result": ...} objects.
+ * <p>
+ * A batch is sent once it is full or the oldest result in it has waited for the linger time. If the LMS cannot be reached or answers with an error, the batch
+ * is sent again with exponential backoff, later results wait behind it. This includes authentication errors and a missing endpoint, which are fixed by
+ * correcting the configuration, not by the results. Only results the LMS rejects as invalid are dropped: the results of a rejected batch are sent one by one,
+ * so that only the rejected ones are lost, and each of them is logged.
+ * <p>
+ * Results stay in the spool until the LMS accepted them, so they are delivered after a restart as well. Delivery is at least once: the LMS can receive a result
+ * again after a crash and has to tell duplicates apart by the result ID.
+ */
+public class LocalCIResultPublisher implements AutoCloseable {
+
+    private static final byte SPOOL_RECORD_RESULT = 1;
+
+    // Marks all results up to the given sequence number as delivered.
+    private static final byte SPOOL_RECORD_DELIVERED = 2;
+
+    // The spool is rewritten without the delivered results once it grows beyond this size.
+    private static final long SPOOL_COMPACTION_THRESHOLD_BYTES = 64L * 1024 * 1024;
+
+    // Bad request, payload too large and unprocessable entity: the LMS will never accept the results as they are.
+    private static final Set<Integer> REJECTED_STATUS_CODES = Set.of(400, 413, 422);
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    // How long closing waits for the queued results to be delivered, the rest is delivered after the next start.
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+    private final URI endpoint;
+
+    private final int maxBatchSize;
+
+    private final Duration linger;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private final HttpClient httpClient;
+
+    private final LocalCIBuildJobSerializer serializer = new LocalCIBuildJobSerializer();
+
+    private final Spool spool;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition resultsQueued = lock.newCondition();
+
+    // Results not yet accepted by the LMS, in the order they were published. Guarded by the lock, only the sender removes results.
+    private final ArrayDeque<QueuedResult> queue = new ArrayDeque<>();
+
+    private long nextSequence;
+
+    // The results up to this sequence number are sent one by one, because the LMS rejected a batch containing them. Only used by the sender.
+    private long sendSinglyUpTo = -1;
+
+    private final Thread sender;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param endpoint       URL the batches are posted to
+     * @param spoolFile      file the results are kept in until they are delivered, results left from a previous run are delivered first
+     * @param maxBatchSize   maximum number of results per request
+     * @param linger         how long a result may wait for more results to fill the batch
+     * @param initialBackoff delay before the first retry of a failed batch, doubled for every further retry
+     * @param maxBackoff     upper bound of the delay between retries
+     */
+    public LocalCIResultPublisher(URI endpoint, Path spoolFile, int maxBatchSize, Duration linger, Duration initialBackoff, Duration maxBackoff) throws IOException {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatchSize);
+        }
+        this.endpoint = endpoint;
+        this.maxBatchSize = maxBatchSize;
+        this.linger = linger;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.httpClient = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+        this.spool = new Spool(spoolFile.toAbsolutePath());
+        List<QueuedResult> spooledResults = spool.recover();
+        queue.addAll(spooledResults);
+        nextSequence = spooledResults.isEmpty() ? 0 : spooledResults.get(spooledResults.size() - 1).sequence() + 1;
+        if (!spooledResults.isEmpty()) {
+            System.out.println("Delivering " + spooledResults.size() + " results left from the previous run");
+        }
+        this.sender = new Thread(this::sendResults, "local-ci-result-publisher");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Queues the result for delivery. Returns as soon as the result is written to the spool.
+     *
+     * @param resultId identifies the result towards the LMS, e.g. the ID of the submission
+     */
+    public void publish(String resultId, LocalCIBuildJobDTO result) {
+        if (closed) {
+            throw new IllegalStateException("Result publisher is closed");
+        }
+        if (resultId == null) {
+            throw new IllegalArgumentException("Result without ID");
+        }
+        // Serialize outside of the lock, the JSON is reused for every attempt to deliver the result.
+        byte[] json = toJson(resultId, result);
+        lock.lock();
+        try {
+            QueuedResult queuedResult = new QueuedResult(nextSequence++, resultId, json, System.nanoTime());
+            try {
+                spool.append(queuedResult);
+            } catch (IOException e) {
+                // Still deliver the result as long as the process keeps running.
+                System.out.println("Could not spool result " + resultId + ": " + e.getMessage());
+            }
+            queue.add(queuedResult);
+            resultsQueued.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publishes the result of the build job once it is done. A build job that failed because of an error of the CI is published as
+     * {@link LocalCIBuildStatus#INTERNAL_ERROR}, so that the LMS does not wait for it forever. Cancelled build jobs are not published.
+     */
+    public void publishWhenDone(String resultId, CompletableFuture<LocalCIBuildJobDTO> buildJob) {
+        buildJob.whenComplete((result, throwable) -> {
+            if (throwable instanceof CancellationException || throwable instanceof CompletionException && throwable.getCause() instanceof CancellationException) {
+                return;
+            }
+            if (closed) {
+                System.out.println("Result publisher is closed, result " + resultId + " is not delivered");
+                return;
+            }
+            publish(resultId, throwable == null ? result
+                    : new LocalCIBuildJobDTO(LocalCIBuildStatus.INTERNAL_ERROR, null, null, null, List.of(), List.of(), List.of()));
+        });
+    }
+
+    /**
+     * Returns the number of results that were not accepted by the LMS yet.
+     */
+    public int getQueuedResults() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] toJson(String resultId, LocalCIBuildJobDTO result) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (JsonGenerator generator = serializer.createJsonGenerator(outputStream)) {
+            generator.writeStartObject();
+            generator.writeStringField("resultId", resultId);
+            generator.writeFieldName("result");
+            serializer.writeJson(result, generator);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            // Writes to memory only.
+            throw new IllegalStateException("Could not serialize result " + resultId, e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private void sendResults() {
+        int failedAttempts = 0;
+        while (true) {
+            List<QueuedResult> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch.isEmpty()) {
+                // Closed and nothing left to deliver.
+                return;
+            }
+            Delivery delivery = deliver(batch);
+            if (delivery == Delivery.REJECTED && batch.size() > 1) {
+                // Find the rejected results by sending them one by one.
+                sendSinglyUpTo = batch.get(batch.size() - 1).sequence();
+                continue;
+            }
+            if (delivery != Delivery.FAILED) {
+                if (delivery == Delivery.REJECTED) {
+                    System.out.println("ERROR: LMS rejected result " + batch.get(0).resultId() + ", it is dropped and will never be delivered: "
+                            + new String(batch.get(0).json(), StandardCharsets.UTF_8));
+                }
+                failedAttempts = 0;
+                remove(batch);
+                continue;
+            }
+            if (closed) {
+                // The remaining results are delivered after the next start.
+                return;
+            }
+            try {
+                Thread.sleep(backoff(failedAttempts++).toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Waits until the batch is full or the oldest result has lingered long enough. Returns the results from the head of the queue without removing them.
+    private List<QueuedResult> nextBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (closed) {
+                    return List.of();
+                }
+                resultsQueued.await();
+            }
+            int batchSize = queue.peek().sequence() <= sendSinglyUpTo ? 1 : maxBatchSize;
+            long deadline = queue.peek().queuedAtNanos() + linger.toNanos();
+            long remaining;
+            while (queue.size() < batchSize && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+                resultsQueued.awaitNanos(remaining);
+            }
+            List<QueuedResult> batch = new ArrayList<>(Math.min(queue.size(), batchSize));
+            for (QueuedResult queuedResult : queue) {
+                if (batch.size() == batchSize) {
+                    break;
+                }
+                batch.add(queuedResult);
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Delivery deliver(List<QueuedResult> batch) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write('[');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                body.write(',');
+            }
+            body.writeBytes(batch.get(i).json());
+        }
+        body.write(']');
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+        try {
+            int statusCode = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            if (statusCode >= 200 && statusCode < 300) {
+                return Delivery.DELIVERED;
+            }
+            // Sending a rejected result again cannot help and would block all later results. Everything else, e.g. a wrong token or URL, is retried until fixed.
+            if (REJECTED_STATUS_CODES.contains(statusCode)) {
+                System.out.println("LMS rejected a batch of " + batch.size() + " results with status " + statusCode);
+                return Delivery.REJECTED;
+            }
+            System.out.println("Could not deliver " + batch.size() + " results, LMS answered with status " + statusCode);
+        } catch (IOException e) {
+            // E.g. a refused connection, whose message is empty.
+            System.out.println("Could not deliver " + batch.size() + " results: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Delivery.FAILED;
+    }
+
+    // Exponential backoff with jitter, so that many agents do not retry against a recovering LMS at the same moment.
+    private Duration backoff(int failedAttempts) {
+        long backoffMillis = initialBackoff.toMillis() << Math.min(failedAttempts, 30);
+        if (backoffMillis <= 0 || backoffMillis > maxBackoff.toMillis()) {
+            backoffMillis = maxBackoff.toMillis();
+        }
+        return Duration.ofMillis(backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1));
+    }
+
+    private void remove(List<QueuedResult> batch) {
+        lock.lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                queue.poll();
+            }
+            spool.markDelivered(batch.get(batch.size() - 1).sequence());
+            if (spool.size() > SPOOL_COMPACTION_THRESHOLD_BYTES) {
+                spool.compact(queue);
+            }
+        } catch (IOException e) {
+            // At worst the results are delivered again after a restart.
+            System.out.println("Could not update result spool: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting results and tries to deliver the queued results for a short time. Undelivered results remain in the spool.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        lock.lock();
+        try {
+            resultsQueued.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            sender.join(CLOSE_TIMEOUT.toMillis());
+            if (sender.isAlive()) {
+                sender.interrupt();
+                sender.join(TimeUnit.SECONDS.toMillis(1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            // Leave only the undelivered results in the spool.
+            spool.compact(queue);
+            spool.close();
+        } catch (IOException e) {
+            System.out.println("Could not close result spool: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private enum Delivery {
+        DELIVERED,
+        // The LMS will never accept the results, they must not be sent again.
+        REJECTED,
+        // E.g. the LMS is not reachable, the results are sent again later.
+        FAILED
+    }
+
+    private record QueuedResult(long sequence, String resultId, byte[] json, long queuedAtNanos) {
+    }
+
+    /**
+     * Append-only file of the published results and of the sequence numbers up to which they were delivered. A result is written and forced to disk before
+     * publishing returns, the delivery marks are not forced. Like in the {@link LocalCIBuildJournal}, every record carries a checksum.
+     */
+    private static class Spool {
+
+        private final Path file;
+
+        private FileChannel channel;
+
+        Spool(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Reads the results that were not delivered and rewrites the spool with only these. A record that is cut off by a crash or corrupt ends the spool, it
+         * and everything after it is dropped.
+         */
+        List<QueuedResult> recover() throws IOException {
+            Files.createDirectories(file.getParent());
+            List<QueuedResult> results = new ArrayList<>();
+            long deliveredUpTo = -1;
+            if (Files.exists(file)) {
+                try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    while (true) {
+                        int length = inputStream.readInt();
+                        long checksum = inputStream.readInt() & 0xFFFFFFFFL;
+                        // A result is never larger than the spool is allowed to grow.
+                        if (length < 9 || length > SPOOL_COMPACTION_THRESHOLD_BYTES) {
+                            System.out.println("Result spool " + file + " is corrupt, ignoring the rest of it");
+                            break;
+                        }
+                        byte[] payload = new byte[length];
+                        inputStream.readFully(payload);
+                        if (checksum(payload) != checksum) {
+                            System.out.println("Result spool " + file + " is corrupt, ignoring the rest of it");
+                            break;
+                        }
+                        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                        byte type = record.readByte();
+                        long sequence = record.readLong();
+                        if (type == SPOOL_RECORD_RESULT) {
+                            String resultId = record.readUTF();
+                            results.add(new QueuedResult(sequence, resultId, record.readAllBytes(), System.nanoTime()));
+                        } else if (type == SPOOL_RECORD_DELIVERED) {
+                            deliveredUpTo = Math.max(deliveredUpTo, sequence);
+                        } else {
+                            System.out.println("Result spool " + file + " contains unknown record type " + type + ", ignoring the rest of it");
+                            break;
+                        }
+                    }
+                } catch (EOFException e) {
+                    // End of the spool, possibly in the middle of the last record.
+                }
+            }
+            long delivered = deliveredUpTo;
+            results.removeIf(result -> result.sequence() <= delivered);
+            compact(results);
+            return results;
+        }
+
+        void append(QueuedResult result) throws IOException {
+            write(resultRecord(result));
+            channel.force(false);
+        }
+
+        void markDelivered(long sequence) throws IOException {
+            write(record(SPOOL_RECORD_DELIVERED, sequence, outputStream -> {
+            }));
+        }
+
+        long size() throws IOException {
+            return channel.size();
+        }
+
+        /**
+         * Replaces the spool with one containing only the given results.
+         */
+        void compact(Collection<QueuedResult> results) throws IOException {
+            close();
+            Path temporaryFile = Files.createTempFile(file.getParent(), "spool", ".tmp");
+            try (BufferedOutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(temporaryFile))) {
+                for (QueuedResult result : results) {
+                    outputStream.write(resultRecord(result));
+                }
+            }
+            try (FileChannel temporaryChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                temporaryChannel.force(true);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        private static byte[] resultRecord(QueuedResult result) throws IOException {
+            return record(SPOOL_RECORD_RESULT, result.sequence(), outputStream -> {
+                outputStream.writeUTF(result.resultId());
+                outputStream.write(result.json());
+            });
+        }
+
+        // A record is the length and the CRC32 of its payload, followed by the payload: type, sequence number and the content of the type.
+        private static byte[] record(byte type, long sequence, RecordContent content) throws IOException {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream payloadStream = new DataOutputStream(payload);
+            payloadStream.writeByte(type);
+            payloadStream.writeLong(sequence);
+            content.write(payloadStream);
+            byte[] payloadBytes = payload.toByteArray();
+            ByteArrayOutputStream record = new ByteArrayOutputStream(payloadBytes.length + 8);
+            DataOutputStream recordStream = new DataOutputStream(record);
+            recordStream.writeInt(payloadBytes.length);
+            recordStream.writeInt((int) checksum(payloadBytes));
+            recordStream.write(payloadBytes);
+            return record.toByteArray();
+        }
+
+        private static long checksum(byte[] payload) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return crc.getValue();
+        }
+
+        private void write(byte[] record) throws IOException {
+            if (channel == null) {
+                throw new IOException("Result spool " + file + " is closed");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private interface RecordContent {
+
+            void write(DataOutputStream outputStream) throws IOException;
+        }
+    }
+}
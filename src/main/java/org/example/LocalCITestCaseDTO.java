@@ -4,10 +4,20 @@ import java.util.List;
 
 public class LocalCITestCaseDTO {
     private String name;
+    private String className;
+    private LocalCITestStatus status;
+    private long durationMillis;
     private List<String> message;
 
     public LocalCITestCaseDTO(String name, List<String> message) {
+        this(name, null, message == null ? LocalCITestStatus.PASSED : LocalCITestStatus.FAILED, 0, message);
+    }
+
+    public LocalCITestCaseDTO(String name, String className, LocalCITestStatus status, long durationMillis, List<String> message) {
         this.name = name;
+        this.className = className;
+        this.status = status;
+        this.durationMillis = durationMillis;
         this.message = message;
     }
 
@@ -19,6 +29,30 @@ public class LocalCITestCaseDTO {
         this.name = name;
     }
 
+    public String getClassName() {
+        return className;
+    }
+
+    public void setClassName(String className) {
+        this.className = className;
+    }
+
+    public LocalCITestStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(LocalCITestStatus status) {
+        this.status = status;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
     public List<String> getMessage() {
         return message;
     }
@@ -26,4 +60,10 @@ public class LocalCITestCaseDTO {
     public void setMessage(List<String> message) {
         this.message = message;
     }
+
+    // Leaves out the message, which is a stack trace for failed tests.
+    @Override
+    public String toString() {
+        return className != null ? className + "." + name + " " + status : name + " " + status;
+    }
 }
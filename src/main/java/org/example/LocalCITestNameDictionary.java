@@ -0,0 +1,50 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a small integer ID to every test of an exercise. All builds of an exercise run the same tests, so the results of the builds only store the IDs and
+ * share one copy of the names.
+ * <p>
+ * IDs are never removed or reassigned, so a result referencing the dictionary stays valid for as long as the dictionary is reachable.
+ */
+public class LocalCITestNameDictionary {
+
+    private final Map<TestName, Integer> ids = new HashMap<>();
+
+    private final List<TestName> testNames = new ArrayList<>();
+
+    /**
+     * Returns the ID of the test, assigning the next free ID if the test is new.
+     *
+     * @param className the class of the test, null if unknown
+     */
+    public synchronized int idOf(String className, String name) {
+        TestName testName = new TestName(className, name);
+        Integer id = ids.get(testName);
+        if (id == null) {
+            id = testNames.size();
+            ids.put(testName, id);
+            testNames.add(testName);
+        }
+        return id;
+    }
+
+    public synchronized String getName(int id) {
+        return testNames.get(id).name();
+    }
+
+    public synchronized String getClassName(int id) {
+        return testNames.get(id).className();
+    }
+
+    public synchronized int size() {
+        return testNames.size();
+    }
+
+    private record TestName(String className, String name) {
+    }
+}
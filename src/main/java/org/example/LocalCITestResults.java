@@ -0,0 +1,157 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The test cases of one build in a compact, immutable form. Instead of one object per test case, the tests are stored column by column: the ID of the test
+ * name in the {@link LocalCITestNameDictionary} of the exercise, the duration, and the status as bits, with a bit set per test that passed. Only the tests
+ * that have a message, i.e. usually the failed ones, store it.
+ * <p>
+ * The tests are ordered failed tests first, then successful, then skipped tests, each in the order they were reported.
+ */
+public final class LocalCITestResults {
+
+    private final LocalCITestNameDictionary dictionary;
+
+    private final int[] testIds;
+
+    private final int[] durationsMillis;
+
+    // One bit per test. A test that passed is neither skipped nor errored, a test that did not pass and is neither skipped nor errored failed.
+    private final BitSet passed;
+
+    private final BitSet skipped;
+
+    private final BitSet errored;
+
+    // Sorted indexes of the tests that have a message, and their messages in the same order.
+    private final int[] messageIndexes;
+
+    private final List<List<String>> messages;
+
+    private LocalCITestResults(LocalCITestNameDictionary dictionary, int[] testIds, int[] durationsMillis, BitSet passed, BitSet skipped, BitSet errored,
+            int[] messageIndexes, List<List<String>> messages) {
+        this.dictionary = dictionary;
+        this.testIds = testIds;
+        this.durationsMillis = durationsMillis;
+        this.passed = passed;
+        this.skipped = skipped;
+        this.errored = errored;
+        this.messageIndexes = messageIndexes;
+        this.messages = messages;
+    }
+
+    /**
+     * Converts the test cases of a build, adding their names to the dictionary. Null lists are treated as empty.
+     */
+    public static LocalCITestResults of(LocalCITestNameDictionary dictionary, List<LocalCITestCaseDTO> failedTests, List<LocalCITestCaseDTO> successfulTests,
+            List<LocalCITestCaseDTO> skippedTests) {
+        List<LocalCITestCaseDTO> failed = failedTests != null ? failedTests : List.of();
+        List<LocalCITestCaseDTO> successful = successfulTests != null ? successfulTests : List.of();
+        List<LocalCITestCaseDTO> skippedList = skippedTests != null ? skippedTests : List.of();
+        int size = failed.size() + successful.size() + skippedList.size();
+
+        int[] testIds = new int[size];
+        int[] durationsMillis = new int[size];
+        BitSet passed = new BitSet(size);
+        BitSet skipped = new BitSet(size);
+        BitSet errored = new BitSet(size);
+        int[] messageIndexes = new int[size];
+        List<List<String>> messages = new ArrayList<>();
+
+        int index = 0;
+        for (List<LocalCITestCaseDTO> testCases : List.of(failed, successful, skippedList)) {
+            for (LocalCITestCaseDTO testCase : testCases) {
+                testIds[index] = dictionary.idOf(testCase.getClassName(), testCase.getName());
+                // Test durations are far below the 24 days an int can hold.
+                durationsMillis[index] = (int) Math.min(testCase.getDurationMillis(), Integer.MAX_VALUE);
+                // The list a test case is in decides its status, only failures and errors are told apart by the status.
+                if (testCases == successful) {
+                    passed.set(index);
+                } else if (testCases == skippedList) {
+                    skipped.set(index);
+                } else if (testCase.getStatus() == LocalCITestStatus.ERROR) {
+                    errored.set(index);
+                }
+                List<String> message = testCase.getMessage();
+                if (message != null) {
+                    messageIndexes[messages.size()] = index;
+                    // The message may contain nulls, e.g. a skipped test without a reason.
+                    messages.add(Collections.unmodifiableList(new ArrayList<>(message)));
+                }
+                index++;
+            }
+        }
+        return new LocalCITestResults(dictionary, testIds, durationsMillis, passed, skipped, errored, Arrays.copyOf(messageIndexes, messages.size()),
+                List.copyOf(messages));
+    }
+
+    public int size() {
+        return testIds.length;
+    }
+
+    public int getTestId(int index) {
+        return testIds[index];
+    }
+
+    public String getName(int index) {
+        return dictionary.getName(testIds[index]);
+    }
+
+    public String getClassName(int index) {
+        return dictionary.getClassName(testIds[index]);
+    }
+
+    public LocalCITestStatus getStatus(int index) {
+        if (passed.get(index)) {
+            return LocalCITestStatus.PASSED;
+        } else if (skipped.get(index)) {
+            return LocalCITestStatus.SKIPPED;
+        } else if (errored.get(index)) {
+            return LocalCITestStatus.ERROR;
+        }
+        return LocalCITestStatus.FAILED;
+    }
+
+    public long getDurationMillis(int index) {
+        return durationsMillis[index];
+    }
+
+    /**
+     * Returns the message of the test, e.g. the stack trace of a failure, or null if it has none.
+     */
+    public List<String> getMessage(int index) {
+        int position = Arrays.binarySearch(messageIndexes, index);
+        return position >= 0 ? messages.get(position) : null;
+    }
+
+    /**
+     * Returns the pass/fail vector: a set bit for every test that passed, indexed like the tests.
+     */
+    public BitSet getPassed() {
+        return (BitSet) passed.clone();
+    }
+
+    public int countPassed() {
+        return passed.cardinality();
+    }
+
+    /**
+     * Creates the test case DTOs of the tests with the given statuses, in the order of the tests.
+     */
+    public List<LocalCITestCaseDTO> toTestCases(LocalCITestStatus... statuses) {
+        List<LocalCITestStatus> wantedStatuses = List.of(statuses);
+        List<LocalCITestCaseDTO> testCases = new ArrayList<>();
+        for (int index = 0; index < testIds.length; index++) {
+            LocalCITestStatus status = getStatus(index);
+            if (wantedStatuses.contains(status)) {
+                testCases.add(new LocalCITestCaseDTO(getName(index), getClassName(index), status, getDurationMillis(index), getMessage(index)));
+            }
+        }
+        return testCases;
+    }
+}
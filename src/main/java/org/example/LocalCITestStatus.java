@@ -0,0 +1,8 @@
+package org.example;
+
+public enum LocalCITestStatus {
+    PASSED,
+    FAILED,
+    ERROR,
+    SKIPPED
+}
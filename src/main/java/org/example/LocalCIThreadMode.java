@@ -0,0 +1,88 @@
+package org.example;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The kind of threads the workers of a {@link LocalCIBuildAgent} run on.
+ * <p>
+ * A worker spends almost all of its time blocked, waiting for the commands in the build container. Virtual threads (Java 21) make the worker itself cost a
+ * few kilobytes of heap instead of a platform thread with its own stack. They do not make the Docker I/O of a build free: docker-java reads the socket in a way
+ * that pins a virtual thread, so the output of a running command is still read on a platform thread of docker-java, and copies run on a pool of platform threads
+ * (see {@link LocalCIContainerService}). A build therefore still holds one platform thread while a command runs, {@link #VIRTUAL} saves the thread of the
+ * worker. On older Java versions the {@link #VIRTUAL} mode falls back to platform threads.
+ */
+public enum LocalCIThreadMode {
+    // One platform thread per worker.
+    PLATFORM,
+    // One virtual thread per worker. The Docker I/O of the worker runs on platform threads while the worker waits, unmounted.
+    VIRTUAL;
+
+    // Thread.ofVirtual() and Thread.Builder, looked up by reflection so that the code still compiles and runs on Java 17. Null if not available.
+    private static final Method OF_VIRTUAL;
+
+    private static final Method BUILDER_NAME;
+
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builderClass.getMethod("name", String.class, long.class);
+            builderFactory = builderClass.getMethod("factory");
+            // Fails on Java 19 and 20 unless preview features are enabled.
+            ofVirtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns the mode that is actually used, i.e. {@link #PLATFORM} for {@link #VIRTUAL} if virtual threads are not supported by the running JVM.
+     */
+    public LocalCIThreadMode effective() {
+        return this == VIRTUAL && !isVirtualThreadSupported() ? PLATFORM : this;
+    }
+
+    /**
+     * Creates a factory for threads of this mode, named with the given prefix and a counter starting at 1.
+     */
+    public ThreadFactory threadFactory(String namePrefix) {
+        if (effective() == VIRTUAL) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 1L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create virtual thread factory", e);
+            }
+        }
+        return new PlatformThreadFactory(namePrefix);
+    }
+
+    private static class PlatformThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+
+        private long count = 0;
+
+        PlatformThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            return new Thread(runnable, namePrefix + ++count);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Prepares the sources of a build job on the host. Every build job gets its own workspace directory below the workspace root, which is copied into the build
+ * container of the job and built there. Build containers never see the workspace root, so they cannot read the workspaces of other build jobs.
+ */
+public class LocalCIWorkspaceService {
+
+    private final Path workspaceRootPath;
+
+    private final LocalCIGitService gitService;
+
+    public LocalCIWorkspaceService(Path workspaceRootPath, LocalCIGitService gitService) {
+        this.workspaceRootPath = workspaceRootPath.toAbsolutePath();
+        this.gitService = gitService;
+        try {
+            Files.createDirectories(this.workspaceRootPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create workspace directory " + workspaceRootPath, e);
+        }
+    }
+
+    public Path getWorkspaceRootPath() {
+        return workspaceRootPath;
+    }
+
+    public Path getWorkspacePath(String workspaceId) {
+        return workspaceRootPath.resolve(workspaceId);
+    }
+
+    /**
+     * Checks out the test repository and puts the assignment repository into its "assignment" folder, which is the layout the build files of the exercises expect.
+     */
+    public void createWorkspace(String workspaceId, Path assignmentRepositoryPath, String assignmentCommitHash, Path testRepositoryPath, String testCommitHash,
+            Duration timeout) throws IOException {
+        Path workspacePath = workspaceRootPath.resolve(workspaceId);
+        gitService.checkout(testRepositoryPath, testCommitHash, workspacePath, timeout);
+        gitService.checkout(assignmentRepositoryPath, assignmentCommitHash, workspacePath.resolve("assignment"), timeout);
+    }
+
+    /**
+     * Deletes all workspaces, e.g. the ones left behind by build jobs that were running when the process crashed. Must only be called while no build job is
+     * running on any agent using the workspace root.
+     *
+     * @return the number of deleted workspaces
+     */
+    public int deleteAllWorkspaces() {
+        if (!Files.isDirectory(workspaceRootPath)) {
+            return 0;
+        }
+        List<String> workspaceIds;
+        try (Stream<Path> paths = Files.list(workspaceRootPath)) {
+            workspaceIds = paths.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.println("Could not list workspaces in " + workspaceRootPath + ": " + e.getMessage());
+            return 0;
+        }
+        workspaceIds.forEach(this::deleteWorkspace);
+        return workspaceIds.size();
+    }
+
+    public void deleteWorkspace(String workspaceId) {
+        Path workspacePath = workspaceRootPath.resolve(workspaceId);
+        if (!Files.exists(workspacePath)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(workspacePath)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Could not delete workspace " + workspacePath + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,19 +1,68 @@
 package org.example;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class Main {
+
+    private static final long DEPENDENCY_CACHE_MAX_SIZE_BYTES = 10L * 1024 * 1024 * 1024;
+
+    private static final int RESULT_CACHE_MAX_ENTRIES = 10_000;
+
+    private static final int BUILD_LOG_HEAD_BYTES = 512 * 1024;
+
+    private static final int BUILD_LOG_TAIL_BYTES = 512 * 1024;
+
+    private static final long BUILD_LOG_STORE_MAX_SIZE_BYTES = 5L * 1024 * 1024 * 1024;
+
+    private static final int METRICS_PORT = 9400;
+
+    private static final URI RESULT_ENDPOINT = URI.create("http://localhost:8080/api/public/local-ci/results");
+
+    private static final int RESULT_BATCH_SIZE = 100;
+
+    private static final Duration RESULT_LINGER = Duration.ofMillis(200);
+
     public static void main(String[] args) {
         Path assignmentRepositoryPath = Paths.get("repositories", "gradle", "bare", "assignment-failure.git").toAbsolutePath();
         Path testRepositoryPath = Paths.get("repositories", "gradle", "bare", "tests.git").toAbsolutePath();
         Path scriptPath = Paths.get("script.sh").toAbsolutePath();
-        LocalCIBuildJob localCIBuildJob = new LocalCIBuildJob(BuildTool.GRADLE, assignmentRepositoryPath, testRepositoryPath, scriptPath);
-        try {
-            localCIBuildJob.runBuildJob();
+        try (LocalCIDockerClientFactory dockerClientFactory = new LocalCIDockerClientFactory();
+                LocalCIDependencyCache dependencyCache = new LocalCIDependencyCache(Paths.get("dependency-cache").toAbsolutePath(), DEPENDENCY_CACHE_MAX_SIZE_BYTES);
+                LocalCIResultPublisher resultPublisher = new LocalCIResultPublisher(RESULT_ENDPOINT, Paths.get("result-spool", "results.spool"), RESULT_BATCH_SIZE,
+                        RESULT_LINGER, Duration.ofSeconds(1), Duration.ofMinutes(5));
+                LocalCIBuildJournal buildJournal = new LocalCIBuildJournal(Paths.get("build-journal", "journal.log"));
+                LocalCIBuildLogStore buildLogStore = new LocalCIBuildLogStore(Paths.get("build-logs"), BUILD_LOG_HEAD_BYTES, BUILD_LOG_TAIL_BYTES,
+                        BUILD_LOG_STORE_MAX_SIZE_BYTES);
+                LocalCIBuildJobExecutor executor = new LocalCIBuildJobExecutor(dockerClientFactory.getDockerClient(LocalCIDockerClientSettings.local()), dependencyCache,
+                        new LocalCIWorkspaceService(Paths.get("workspaces"), new LocalCIGitService()), new LocalCIResultCache(RESULT_CACHE_MAX_ENTRIES, Paths.get("result-cache")),
+                        buildLogStore);
+                LocalCIMetricsEndpoint metricsEndpoint = new LocalCIMetricsEndpoint(executor, new InetSocketAddress("localhost", METRICS_PORT))) {
+            System.out.println("Serving metrics at http://localhost:" + metricsEndpoint.getAddress().getPort() + "/metrics");
+            dependencyCache.startCleanup(Duration.ofHours(1));
+            buildLogStore.startCleanup(Duration.ofHours(1));
+            // Build jobs interrupted by the last shutdown or crash run again, their results are delivered like the others.
+            executor.recover(buildJournal).forEach(resultPublisher::publishWhenDone);
+            String submissionId = UUID.randomUUID().toString();
+            CompletableFuture<LocalCIBuildJobDTO> future = executor.submitBuildJob(submissionId, BuildTool.GRADLE, assignmentRepositoryPath, testRepositoryPath,
+                    scriptPath);
+            resultPublisher.publishWhenDone(submissionId, future);
+            LocalCIBuildJobDTO buildJob = future.get();
+            new LocalCIBuildJobSerializer().writeJson(buildJob, System.out);
+            System.out.println();
         } catch (IOException e) {
             System.out.println("Error: " + e.getMessage());
+        } catch (ExecutionException e) {
+            System.out.println("Error: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
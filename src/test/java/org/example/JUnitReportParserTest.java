@@ -0,0 +1,159 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JUnitReportParserTest {
+
+    private final JUnitReportParser parser = new JUnitReportParser();
+
+    @Test
+    void parsesExampleResult() throws IOException, XMLStreamException {
+        JUnitReportParser.TestSuite testSuite;
+        try (InputStream inputStream = Files.newInputStream(Paths.get("example_result", "TEST-testpackage.MethodTest_failure.xml"))) {
+            testSuite = parser.parse(inputStream);
+        }
+
+        assertEquals(List.of("testMethods[Context]", "testMethods[Policy]", "testMethods[SortStrategy]"),
+                testSuite.failedTests().stream().map(LocalCITestCaseDTO::getName).toList());
+        assertTrue(testSuite.successfulTests().isEmpty());
+        assertTrue(testSuite.skippedTests().isEmpty());
+
+        LocalCITestCaseDTO testCase = testSuite.failedTests().get(0);
+        assertEquals("testpackage.MethodTest", testCase.getClassName());
+        assertEquals(LocalCITestStatus.FAILED, testCase.getStatus());
+        assertEquals(17, testCase.getDurationMillis());
+        // The message attribute, then the stack trace.
+        assertEquals(2, testCase.getMessage().size());
+        assertEquals("org.opentest4j.AssertionFailedError: The exercise expects a class with the name Context in the package testpackage. "
+                + "You did not implement the class in the exercise.", testCase.getMessage().get(0));
+        assertTrue(testCase.getMessage().get(1).startsWith(testCase.getMessage().get(0) + "\n\tat app//de.tum.in.test.api.structural.StructuralTestProvider"));
+        assertTrue(testCase.getMessage().get(1).endsWith("at java.base@17.0.5/java.lang.Thread.run(Thread.java:833)"));
+    }
+
+    @Test
+    void keepsMostSevereStatus() throws XMLStreamException {
+        JUnitReportParser.TestSuite testSuite = parse("""
+                <testsuite name="ExampleTest">
+                  <testcase name="failsThenErrs" classname="ExampleTest" time="0.5">
+                    <failure message="expected 1">trace 1</failure>
+                    <error type="java.lang.NullPointerException">trace 2</error>
+                  </testcase>
+                  <testcase name="errsThenIsSkipped" classname="ExampleTest">
+                    <error message="boom"/>
+                    <skipped/>
+                  </testcase>
+                </testsuite>
+                """);
+
+        assertEquals(2, testSuite.failedTests().size());
+        LocalCITestCaseDTO first = testSuite.failedTests().get(0);
+        assertEquals(LocalCITestStatus.ERROR, first.getStatus());
+        assertEquals(500, first.getDurationMillis());
+        // Without a message attribute the type of the exception is used.
+        assertEquals(List.of("expected 1", "trace 1", "java.lang.NullPointerException", "trace 2"), first.getMessage());
+        LocalCITestCaseDTO second = testSuite.failedTests().get(1);
+        assertEquals(LocalCITestStatus.ERROR, second.getStatus());
+        assertEquals(0, second.getDurationMillis());
+        assertEquals(List.of("boom"), second.getMessage());
+        assertTrue(testSuite.skippedTests().isEmpty());
+    }
+
+    @Test
+    void parsesSkippedTests() throws XMLStreamException {
+        JUnitReportParser.TestSuite testSuite = parse("""
+                <testsuite name="ExampleTest">
+                  <testcase name="disabled" classname="ExampleTest" time="0">
+                    <skipped message="not implemented yet"/>
+                  </testcase>
+                  <testcase name="aborted" classname="ExampleTest" time="0">
+                    <skipped/>
+                  </testcase>
+                </testsuite>
+                """);
+
+        assertTrue(testSuite.isSuccessful());
+        assertEquals(List.of("disabled", "aborted"), testSuite.skippedTests().stream().map(LocalCITestCaseDTO::getName).toList());
+        assertEquals(LocalCITestStatus.SKIPPED, testSuite.skippedTests().get(0).getStatus());
+        assertEquals(List.of("not implemented yet"), testSuite.skippedTests().get(0).getMessage());
+        assertNull(testSuite.skippedTests().get(1).getMessage());
+    }
+
+    @Test
+    void ignoresSystemOut() throws XMLStreamException {
+        JUnitReportParser.TestSuite testSuite = parse("""
+                <testsuites>
+                  <testsuite name="ExampleTest">
+                    <properties><property name="java.version" value="17"/></properties>
+                    <testcase name="printsOutput" classname="ExampleTest" time="1,234.5">
+                      <system-out><![CDATA[<failure message="not a failure"/>]]></system-out>
+                      <system-err>printed <b>markup</b></system-err>
+                    </testcase>
+                    <testcase name="failsWithOutput" classname="ExampleTest">
+                      <failure message="expected 2"><![CDATA[trace]]></failure>
+                      <system-out>output</system-out>
+                    </testcase>
+                    <system-out><![CDATA[<testcase name="not a test case"/>]]></system-out>
+                  </testsuite>
+                  <testsuite name="OtherTest">
+                    <testcase name="passes" classname="OtherTest"/>
+                  </testsuite>
+                </testsuites>
+                """);
+
+        assertEquals(List.of("printsOutput", "passes"), testSuite.successfulTests().stream().map(LocalCITestCaseDTO::getName).toList());
+        LocalCITestCaseDTO printsOutput = testSuite.successfulTests().get(0);
+        assertEquals(LocalCITestStatus.PASSED, printsOutput.getStatus());
+        assertEquals(1234500, printsOutput.getDurationMillis());
+        assertNull(printsOutput.getMessage());
+        assertEquals(1, testSuite.failedTests().size());
+        assertEquals(List.of("expected 2", "trace"), testSuite.failedTests().get(0).getMessage());
+    }
+
+    @Test
+    void boundsStackTrace() throws XMLStreamException {
+        String frame = "\tat org.example.Framework.invoke(Framework.java:42)\n";
+        JUnitReportParser.TestSuite testSuite = parse("<testsuite><testcase name=\"deep\" classname=\"ExampleTest\"><failure message=\"too deep\">"
+                + "java.lang.StackOverflowError\n" + frame.repeat(10_000) + "</failure></testcase></testsuite>");
+
+        String stackTrace = testSuite.failedTests().get(0).getMessage().get(1);
+        assertTrue(stackTrace.startsWith("java.lang.StackOverflowError\n" + frame));
+        assertTrue(stackTrace.length() <= 2000, "Stack trace has " + stackTrace.length() + " characters");
+    }
+
+    @Test
+    void keepsMessagesOfReruns() throws XMLStreamException {
+        JUnitReportParser.TestSuite testSuite = parse("""
+                <testsuite name="ExampleTest">
+                  <testcase name="flaky" classname="ExampleTest">
+                    <failure message="first run"/>
+                    <rerunFailure message="second run"><stackTrace>trace</stackTrace></rerunFailure>
+                  </testcase>
+                </testsuite>
+                """);
+
+        assertEquals(List.of("first run", "second run"), testSuite.failedTests().get(0).getMessage());
+    }
+
+    @Test
+    void rejectsOtherDocuments() {
+        assertThrows(IllegalStateException.class, () -> parse("<project/>"));
+    }
+
+    private JUnitReportParser.TestSuite parse(String report) throws XMLStreamException {
+        return parser.parse(new ByteArrayInputStream(report.getBytes(StandardCharsets.UTF_8)));
+    }
+}
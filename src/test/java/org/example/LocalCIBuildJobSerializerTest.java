@@ -0,0 +1,75 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LocalCIBuildJobSerializerTest {
+
+    private final LocalCIBuildJobSerializer serializer = new LocalCIBuildJobSerializer();
+
+    @Test
+    void roundTripsJson() throws IOException {
+        LocalCIBuildJobDTO buildJob = buildJob();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serializer.writeJson(buildJob, outputStream);
+
+        assertSameBuildJob(buildJob, serializer.readJson(new ByteArrayInputStream(outputStream.toByteArray())));
+    }
+
+    @Test
+    void roundTripsBinary() throws IOException {
+        LocalCIBuildJobDTO buildJob = buildJob();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serializer.writeBinary(buildJob, outputStream);
+
+        assertSameBuildJob(buildJob, serializer.readBinary(new ByteArrayInputStream(outputStream.toByteArray())));
+    }
+
+    @Test
+    void roundTripsTimedOutBuildJob() throws IOException {
+        LocalCIBuildJobDTO buildJob = new LocalCIBuildJobDTO(LocalCIBuildStatus.TIMED_OUT, LocalCIBuildPhase.TEST, "assignment-commit", null, List.of(), List.of(),
+                List.of());
+        ByteArrayOutputStream jsonStream = new ByteArrayOutputStream();
+        serializer.writeJson(buildJob, jsonStream);
+        ByteArrayOutputStream binaryStream = new ByteArrayOutputStream();
+        serializer.writeBinary(buildJob, binaryStream);
+
+        assertSameBuildJob(buildJob, serializer.readJson(new ByteArrayInputStream(jsonStream.toByteArray())));
+        assertSameBuildJob(buildJob, serializer.readBinary(new ByteArrayInputStream(binaryStream.toByteArray())));
+    }
+
+    private static LocalCIBuildJobDTO buildJob() {
+        LocalCIBuildJobDTO buildJob = new LocalCIBuildJobDTO(LocalCIBuildStatus.FAILED, null, "assignment-commit", "test-commit",
+                List.of(new LocalCITestCaseDTO("fails", "testpackage.ExampleTest", LocalCITestStatus.FAILED, 17, List.of("expected: <1> but was: <2>", "at \"\u00e4\u00f6\u00fc\"\n\tat x")),
+                        new LocalCITestCaseDTO("errs", "testpackage.ExampleTest", LocalCITestStatus.ERROR, 0, List.of("java.lang.NullPointerException"))),
+                List.of(new LocalCITestCaseDTO("passes", "testpackage.ExampleTest", LocalCITestStatus.PASSED, 1234, null)),
+                List.of(new LocalCITestCaseDTO("disabled", null, LocalCITestStatus.SKIPPED, 0, List.of())));
+        buildJob.setBuildLogId("build-log");
+        return buildJob;
+    }
+
+    private static void assertSameBuildJob(LocalCIBuildJobDTO expected, LocalCIBuildJobDTO actual) {
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.isBuildSuccessful(), actual.isBuildSuccessful());
+        assertSameTestCases(expected.getFailedTests(), actual.getFailedTests());
+        assertSameTestCases(expected.getSuccessfulTests(), actual.getSuccessfulTests());
+        assertSameTestCases(expected.getSkippedTests(), actual.getSkippedTests());
+    }
+
+    private static void assertSameTestCases(List<LocalCITestCaseDTO> expected, List<LocalCITestCaseDTO> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            assertEquals(expected.get(i).getClassName(), actual.get(i).getClassName());
+            assertEquals(expected.get(i).getStatus(), actual.get(i).getStatus());
+            assertEquals(expected.get(i).getDurationMillis(), actual.get(i).getDurationMillis());
+            assertEquals(expected.get(i).getMessage(), actual.get(i).getMessage());
+        }
+    }
+}
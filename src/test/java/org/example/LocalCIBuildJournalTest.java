@@ -0,0 +1,148 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LocalCIBuildJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversUnfinishedBuildJobs() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            journal.submitted("job-1", request("submission-1"));
+            journal.attached("job-1", "submission-2");
+            journal.started("job-1", "agent-1", 2);
+            journal.submitted("job-2", request("submission-3"));
+            journal.finished("job-2");
+            journal.submitted("job-3", request(null));
+        }
+
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            List<LocalCIBuildJournal.RecoveredBuildJob> recovered = journal.getRecoveredBuildJobs();
+            assertEquals(List.of("job-1", "job-3"), recovered.stream().map(LocalCIBuildJournal.RecoveredBuildJob::id).toList());
+
+            LocalCIBuildJournal.RecoveredBuildJob first = recovered.get(0);
+            assertEquals(request("submission-1"), first.request());
+            assertEquals(List.of("submission-2"), first.attachedSubmissionIds());
+            assertEquals(2, first.attempts());
+            assertEquals("agent-1", first.lastAgentName());
+
+            LocalCIBuildJournal.RecoveredBuildJob second = recovered.get(1);
+            assertEquals(request(null), second.request());
+            assertEquals(0, second.attempts());
+            assertNull(second.lastAgentName());
+        }
+    }
+
+    @Test
+    void ignoresRecordCutOffByCrash() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            journal.submitted("job-1", request("submission-1"));
+            journal.submitted("job-2", request("submission-2"));
+        }
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 3));
+
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            assertEquals(List.of("job-1"), journal.getRecoveredBuildJobs().stream().map(LocalCIBuildJournal.RecoveredBuildJob::id).toList());
+        }
+    }
+
+    @Test
+    void ignoresRestAfterCorruptRecord() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            journal.submitted("job-1", request("submission-1"));
+        }
+        long firstRecordLength = Files.size(file);
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            journal.submitted("job-2", request("submission-2"));
+            journal.submitted("job-3", request("submission-3"));
+        }
+        // Flip a byte in the payload of the second record.
+        byte[] content = Files.readAllBytes(file);
+        content[(int) firstRecordLength + 10] ^= 0x55;
+        Files.write(file, content);
+
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            assertEquals(List.of("job-1"), journal.getRecoveredBuildJobs().stream().map(LocalCIBuildJournal.RecoveredBuildJob::id).toList());
+        }
+    }
+
+    @Test
+    void skipsUnreadableRecords() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            journal.submitted("job-1", request("submission-1"));
+        }
+        // A build job with a build tool this version does not know, and a record type it does not know.
+        appendRecord(file, payload -> {
+            payload.writeByte(1);
+            payload.writeUTF("job-2");
+            payload.writeBoolean(false);
+            payload.writeUTF("ANT");
+        });
+        appendRecord(file, payload -> {
+            payload.writeByte(42);
+            payload.writeUTF("job-3");
+        });
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            journal.submitted("job-4", request("submission-4"));
+        }
+
+        try (LocalCIBuildJournal journal = new LocalCIBuildJournal(file)) {
+            assertEquals(List.of("job-1", "job-4"), journal.getRecoveredBuildJobs().stream().map(LocalCIBuildJournal.RecoveredBuildJob::id).toList());
+        }
+    }
+
+    @Test
+    void rejectsIncompleteRequest() {
+        assertThrows(IllegalArgumentException.class, () -> new LocalCIBuildJobRequest("submission-1", BuildTool.MAVEN, Paths.get("assignment"), Paths.get("test"),
+                Paths.get("script.sh"), LocalCIBuildTimeouts.DEFAULT, LocalCIResourceProfile.forBuildTool(BuildTool.MAVEN), LocalCIBuildPriority.STUDENT_PUSH, null));
+    }
+
+    private static LocalCIBuildJobRequest request(String submissionId) {
+        return new LocalCIBuildJobRequest(submissionId, BuildTool.GRADLE, Paths.get("/repositories/assignment.git"), Paths.get("/repositories/test.git"),
+                Paths.get("script.sh"), LocalCIBuildTimeouts.DEFAULT, LocalCIResourceProfile.forBuildTool(BuildTool.GRADLE), LocalCIBuildPriority.EXAM,
+                "course-1");
+    }
+
+    // Appends a record in the format of the journal: length and CRC32 of the payload, followed by the payload.
+    private static void appendRecord(Path file, PayloadWriter writer) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(payload));
+        byte[] payloadBytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordStream = new DataOutputStream(record);
+        recordStream.writeInt(payloadBytes.length);
+        recordStream.writeInt((int) crc.getValue());
+        recordStream.write(payloadBytes);
+        Files.write(file, record.toByteArray(), StandardOpenOption.APPEND);
+    }
+
+    private interface PayloadWriter {
+
+        void write(DataOutputStream outputStream) throws IOException;
+    }
+}
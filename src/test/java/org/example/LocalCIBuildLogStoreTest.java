@@ -0,0 +1,102 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalCIBuildLogStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsShortOutputCompletely() throws IOException {
+        LocalCIBuildLogStore store = new LocalCIBuildLogStore(directory, 100, 100, Long.MAX_VALUE);
+        LocalCIBuildLogListener writer = store.openWriter("job");
+        writer.onOutput(LocalCIBuildPhase.COMPILE, false, bytes("compiling\n"));
+        writer.onOutput(LocalCIBuildPhase.TEST, true, bytes("test failed\n"));
+        assertFalse(store.hasLog("job"));
+        writer.onClose();
+
+        assertEquals("compiling\ntest failed\n", read(store, "job"));
+    }
+
+    @Test
+    void keepsHeadAndTailOfLongOutput() throws IOException {
+        LocalCIBuildLogStore store = new LocalCIBuildLogStore(directory, 10, 8, Long.MAX_VALUE);
+        LocalCIBuildLogListener writer = store.openWriter("job");
+        writer.onOutput(LocalCIBuildPhase.COMPILE, false, bytes("0123456"));
+        writer.onOutput(LocalCIBuildPhase.COMPILE, false, bytes("789abcdefghijklmnopqrstuvw"));
+        writer.onOutput(LocalCIBuildPhase.TEST, false, bytes("xyz"));
+        writer.onClose();
+
+        // 36 bytes: the first 10 and the last 8 are kept.
+        assertEquals("0123456789\n[... 18 bytes of output left out ...]\nstuvwxyz", read(store, "job"));
+    }
+
+    @Test
+    void createsFilesOnlyForRunningBuildJobs() throws IOException {
+        LocalCIBuildLogStore store = new LocalCIBuildLogStore(directory, 100, 100, Long.MAX_VALUE);
+        LocalCIBuildLogListener writer = store.openWriter("job");
+        assertEquals(List.of(), files());
+
+        writer.onOutput(LocalCIBuildPhase.COMPILE, false, bytes("output"));
+        assertEquals(1, files().size());
+    }
+
+    @Test
+    void deletesLogsLeftUnfinishedByCrash() throws IOException {
+        Files.writeString(directory.resolve("log123.tmp"), "partial");
+        Files.writeString(directory.resolve("other.txt"), "unrelated");
+
+        new LocalCIBuildLogStore(directory, 100, 100, Long.MAX_VALUE);
+
+        assertEquals(List.of("other.txt"), files());
+    }
+
+    @Test
+    void evictsOldestLogs() throws IOException {
+        LocalCIBuildLogStore store = new LocalCIBuildLogStore(directory, 1000, 0, 1);
+        for (String buildJobId : List.of("old", "new")) {
+            LocalCIBuildLogListener writer = store.openWriter(buildJobId);
+            writer.onOutput(LocalCIBuildPhase.COMPILE, false, bytes("output of " + buildJobId));
+            writer.onClose();
+        }
+        Files.setLastModifiedTime(directory.resolve("old.log.gz"), FileTime.fromMillis(0));
+
+        store.evict();
+
+        assertFalse(store.hasLog("old"));
+        // Still above the maximum size, but nothing else is left to evict.
+        assertFalse(store.hasLog("new"));
+        assertTrue(files().isEmpty());
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static String read(LocalCIBuildLogStore store, String buildJobId) throws IOException {
+        try (InputStream inputStream = store.openLog(buildJobId)) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
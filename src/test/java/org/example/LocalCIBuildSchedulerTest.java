@@ -0,0 +1,99 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LocalCIBuildSchedulerTest {
+
+    private static final Duration NO_AGING = Duration.ofDays(1);
+
+    @Test
+    void runsMoreUrgentJobsFirst() {
+        LocalCIBuildScheduler<String> scheduler = new LocalCIBuildScheduler<>(NO_AGING);
+        scheduler.add(entry(LocalCIBuildPriority.BULK_RERUN, "course", "exercise", "rerun"));
+        scheduler.add(entry(LocalCIBuildPriority.STUDENT_PUSH, "course", "exercise", "push"));
+        scheduler.add(entry(LocalCIBuildPriority.EXAM, "course", "exam", "exam"));
+
+        assertEquals(List.of("exam", "push", "rerun"), pollAll(scheduler));
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    void sharesWorkersBetweenExercises() {
+        LocalCIBuildScheduler<String> scheduler = new LocalCIBuildScheduler<>(NO_AGING);
+        for (int i = 1; i <= 4; i++) {
+            scheduler.add(entry(LocalCIBuildPriority.STUDENT_PUSH, "course", "large-exercise", "large-" + i));
+        }
+        scheduler.add(entry(LocalCIBuildPriority.STUDENT_PUSH, "course", "small-exercise", "small-1"));
+
+        // The small exercise does not wait behind all jobs of the large one.
+        assertEquals(List.of("large-1", "small-1", "large-2", "large-3", "large-4"), pollAll(scheduler));
+    }
+
+    @Test
+    void sharesWorkersBetweenCoursesByWeight() {
+        LocalCIBuildScheduler<String> scheduler = new LocalCIBuildScheduler<>(NO_AGING);
+        scheduler.setCourseWeight("large-course", 2);
+        for (int i = 0; i < 6; i++) {
+            scheduler.add(entry(LocalCIBuildPriority.STUDENT_PUSH, "large-course", "exercise", "large"));
+            scheduler.add(entry(LocalCIBuildPriority.STUDENT_PUSH, "small-course", "exercise", "small"));
+        }
+
+        List<String> firstJobs = pollAll(scheduler).subList(0, 6);
+        assertEquals(4, firstJobs.stream().filter("large"::equals).count());
+        assertEquals(2, firstJobs.stream().filter("small"::equals).count());
+    }
+
+    @Test
+    void agesWaitingJobs() throws InterruptedException {
+        LocalCIBuildScheduler<String> scheduler = new LocalCIBuildScheduler<>(Duration.ofMillis(1));
+        scheduler.add(entry(LocalCIBuildPriority.BULK_RERUN, "course", "exercise", "rerun"));
+        // Long enough for the re-run to count as more urgent than an exam submission.
+        Thread.sleep(50);
+        scheduler.add(entry(LocalCIBuildPriority.EXAM, "course", "exam", "exam"));
+
+        assertEquals(List.of("rerun", "exam"), pollAll(scheduler));
+    }
+
+    @Test
+    void promotesAndRemovesQueuedJobs() {
+        LocalCIBuildScheduler<String> scheduler = new LocalCIBuildScheduler<>(NO_AGING);
+        LocalCIBuildScheduler.Entry<String> first = entry(LocalCIBuildPriority.STUDENT_PUSH, "course", "exercise", "first");
+        LocalCIBuildScheduler.Entry<String> second = entry(LocalCIBuildPriority.STUDENT_PUSH, "course", "exercise", "second");
+        LocalCIBuildScheduler.Entry<String> third = entry(LocalCIBuildPriority.STUDENT_PUSH, "course", "exercise", "third");
+        scheduler.add(first);
+        scheduler.add(second);
+        scheduler.add(third);
+
+        scheduler.promote(third, LocalCIBuildPriority.EXAM);
+        // Demoting is not possible.
+        scheduler.promote(third, LocalCIBuildPriority.BULK_RERUN);
+        scheduler.remove(first);
+
+        assertEquals(2, scheduler.size());
+        assertEquals(List.of("third", "second"), pollAll(scheduler));
+        assertFalse(scheduler.remove(first));
+        assertEquals(2, scheduler.getStatistics().get(LocalCIBuildPriority.STUDENT_PUSH).startedBuildJobs()
+                + scheduler.getStatistics().get(LocalCIBuildPriority.EXAM).startedBuildJobs());
+    }
+
+    private static LocalCIBuildScheduler.Entry<String> entry(LocalCIBuildPriority priority, String courseId, String exerciseId, String job) {
+        return new LocalCIBuildScheduler.Entry<>(priority, courseId, exerciseId, job);
+    }
+
+    private static List<String> pollAll(LocalCIBuildScheduler<String> scheduler) {
+        List<String> jobs = new ArrayList<>();
+        LocalCIBuildScheduler.Entry<String> entry;
+        while ((entry = scheduler.poll()) != null) {
+            jobs.add(entry.getJob());
+        }
+        return jobs;
+    }
+}
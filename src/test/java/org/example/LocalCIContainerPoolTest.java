@@ -0,0 +1,82 @@
+package org.example;
+
+import com.github.dockerjava.api.DockerClient;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Needs a Docker daemon with the default build image, skipped otherwise.
+class LocalCIContainerPoolTest {
+
+    private static final LocalCIResourceProfile RESOURCE_PROFILE = LocalCIResourceProfile.forBuildTool(BuildTool.MAVEN);
+
+    @TempDir
+    Path directory;
+
+    private LocalCIDockerClientFactory dockerClientFactory;
+
+    private LocalCIContainerService containerService;
+
+    private LocalCIContainerPool pool;
+
+    @BeforeEach
+    void startPool() {
+        dockerClientFactory = new LocalCIDockerClientFactory();
+        DockerClient dockerClient = dockerClientFactory.getDockerClient(LocalCIDockerClientSettings.local());
+        assumeTrue(isAvailable(dockerClient), "No Docker daemon with the image " + LocalCIContainerPool.DEFAULT_IMAGE);
+        containerService = new LocalCIContainerService(dockerClient, "pool-test", new LocalCIBuildMetrics(), LocalCIThreadMode.PLATFORM);
+        pool = new LocalCIContainerPool(containerService, new LocalCIDependencyCache(directory, Long.MAX_VALUE), 1, 1, Duration.ofMinutes(10), 10, false);
+    }
+
+    @AfterEach
+    void stopPool() {
+        if (pool != null) {
+            pool.close();
+            containerService.close();
+        }
+        dockerClientFactory.close();
+    }
+
+    @Test
+    void reusesResetContainer() {
+        LocalCIContainer container = lease();
+        // Leave a process behind that is re-parented to docker-init, and state in the Gradle user home.
+        assertEquals(0, run(container, "(sleep 1000 > /dev/null 2>&1 &); mkdir -p ~/.gradle/wrapper/dists ~/.gradle/init.d /tmp/build "
+                + "&& touch ~/.gradle/wrapper/dists/gradle ~/.gradle/init.d/init.gradle ~/.gradle/gradle.properties"));
+        pool.returnContainer(container, true);
+
+        LocalCIContainer reused = lease();
+        assertEquals(container.getId(), reused.getId());
+        assertEquals(2, reused.getUses());
+        assertEquals(0, run(reused, "! grep -qx sleep /proc/[0-9]*/comm"));
+        assertEquals(0, run(reused, "test -f ~/.gradle/wrapper/dists/gradle"));
+        assertEquals(0, run(reused, "test ! -e ~/.gradle/init.d && test ! -e ~/.gradle/gradle.properties && test ! -e /tmp/build"));
+        pool.returnContainer(reused, true);
+    }
+
+    private LocalCIContainer lease() {
+        return pool.leaseContainer(LocalCIContainerPool.DEFAULT_IMAGE, BuildTool.MAVEN, "exercise", "participation", RESOURCE_PROFILE);
+    }
+
+    private long run(LocalCIContainer container, String command) {
+        return containerService.executeCommand(container.getId(), "sh", "-c", command);
+    }
+
+    private static boolean isAvailable(DockerClient dockerClient) {
+        try {
+            dockerClient.pingCmd().exec();
+            dockerClient.inspectImageCmd(LocalCIContainerPool.DEFAULT_IMAGE).exec();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
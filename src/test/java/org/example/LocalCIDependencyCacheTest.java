@@ -0,0 +1,209 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class LocalCIDependencyCacheTest {
+
+    private static final String BUILD_SCRIPT = """
+            repositories {
+                maven {
+                    url = uri('http://127.0.0.1:%d/')
+                    allowInsecureProtocol = true
+                }
+            }
+            def libraryFiles = configurations.create('libraries')
+            dependencies {
+                libraries 'com.example:lib:1.0'
+            }
+            tasks.register('resolve') {
+                doLast {
+                    libraryFiles.files.each { println(it.name) }
+                }
+            }
+            """;
+
+    @TempDir
+    Path directory;
+
+    // Stands in for Maven Central, serves a single library.
+    private HttpServer repository;
+
+    private final AtomicInteger repositoryRequests = new AtomicInteger();
+
+    @AfterEach
+    void stopRepository() {
+        if (repository != null) {
+            repository.stop(0);
+        }
+    }
+
+    @Test
+    void keepsTheSnapshotWithMoreDependencies() throws IOException {
+        LocalCIDependencyCache dependencyCache = new LocalCIDependencyCache(directory.resolve("cache"), Long.MAX_VALUE);
+        Path current = directory.resolve("cache").resolve("gradle").resolve("current");
+        assertTrue(Files.isDirectory(current.resolve("modules-2")));
+
+        dependencyCache.publishGradleCache(archive(Map.of("modules-2/files-2.1/a/a/1/x/a.jar", "a", "modules-2/files-2.1/b/b/1/x/b.jar", "b",
+                "modules-2/metadata-2.107/descriptors.bin", "two", "modules-2/modules-2.lock", "lock", "modules-2/gc.properties", "")));
+        assertEquals("two", Files.readString(current.resolve("modules-2/metadata-2.107/descriptors.bin")));
+        assertFalse(Files.exists(current.resolve("modules-2/modules-2.lock")));
+        assertFalse(Files.exists(current.resolve("modules-2/gc.properties")));
+
+        // Metadata of different homes cannot be merged, a home with fewer dependencies does not replace the snapshot.
+        dependencyCache.publishGradleCache(archive(Map.of("modules-2/files-2.1/c/c/1/x/c.jar", "c", "modules-2/metadata-2.107/descriptors.bin", "one")));
+        assertEquals("two", Files.readString(current.resolve("modules-2/metadata-2.107/descriptors.bin")));
+        assertFalse(Files.exists(current.resolve("modules-2/files-2.1/c")));
+
+        // The snapshot survives a restart.
+        new LocalCIDependencyCache(directory.resolve("cache"), Long.MAX_VALUE).publishGradleCache(archive(Map.of("modules-2/files-2.1/c/c/1/x/c.jar", "c")));
+        assertTrue(Files.exists(current.resolve("modules-2/files-2.1/a/a/1/x/a.jar")));
+    }
+
+    @Test
+    void secondBuildResolvesOffline() throws Exception {
+        assumeTrue(isGradleAvailable(), "No gradle on the PATH");
+        startRepository();
+        Path project = directory.resolve("project");
+        Files.createDirectories(project);
+        Files.writeString(project.resolve("settings.gradle"), "rootProject.name = 'exercise'\n");
+        Files.writeString(project.resolve("build.gradle"), String.format(BUILD_SCRIPT, repository.getAddress().getPort()));
+
+        // The first build downloads the library into the Gradle user home of its container.
+        Path firstHome = directory.resolve("first-home");
+        assertEquals("lib-1.0.jar", runGradle(project, firstHome, null, "resolve"));
+        assertTrue(repositoryRequests.get() > 0);
+
+        LocalCIDependencyCache dependencyCache = new LocalCIDependencyCache(directory.resolve("cache"), Long.MAX_VALUE);
+        dependencyCache.publishGradleCache(new ByteArrayInputStream(archive(firstHome.resolve("caches").resolve("modules-2"))));
+
+        // The second build runs in another container with an empty Gradle user home and only has the shared read-only cache.
+        int requests = repositoryRequests.get();
+        Path readOnlyCache = directory.resolve("cache").resolve("gradle").resolve("current");
+        assertEquals("lib-1.0.jar", runGradle(project, directory.resolve("second-home"), readOnlyCache, "--offline", "resolve"));
+        assertEquals(requests, repositoryRequests.get());
+    }
+
+    private void startRepository() throws IOException {
+        byte[] pom = ("<project><modelVersion>4.0.0</modelVersion><groupId>com.example</groupId><artifactId>lib</artifactId><version>1.0</version></project>")
+                .getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(jar)) {
+            zipOutputStream.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zipOutputStream.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, byte[]> files = Map.of("/com/example/lib/1.0/lib-1.0.pom", pom, "/com/example/lib/1.0/lib-1.0.jar", jar.toByteArray());
+        repository = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        repository.createContext("/", exchange -> {
+            repositoryRequests.incrementAndGet();
+            byte[] body = files.get(exchange.getRequestURI().getPath());
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        repository.start();
+    }
+
+    // Returns the output of the build, fails if the build fails.
+    private String runGradle(Path project, Path gradleUserHome, Path readOnlyCache, String... arguments) throws Exception {
+        List<String> command = new ArrayList<>(List.of("gradle", "--no-daemon", "--quiet", "--gradle-user-home", gradleUserHome.toString(), "--project-dir",
+                project.toString()));
+        command.addAll(List.of(arguments));
+        Path outputFile = Files.createTempFile(directory, "gradle", ".log");
+        ProcessBuilder processBuilder = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(outputFile.toFile());
+        processBuilder.environment().remove("GRADLE_RO_DEP_CACHE");
+        if (readOnlyCache != null) {
+            processBuilder.environment().put("GRADLE_RO_DEP_CACHE", readOnlyCache.toString());
+        }
+        Process process = processBuilder.start();
+        try {
+            assertTrue(process.waitFor(5, TimeUnit.MINUTES), "Gradle did not finish");
+        } finally {
+            process.destroyForcibly();
+        }
+        String output = Files.readString(outputFile).strip();
+        assertEquals(0, process.exitValue(), output);
+        return output;
+    }
+
+    private static boolean isGradleAvailable() {
+        try {
+            return new ProcessBuilder("gradle", "--version").redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Like the archive Docker copies out of a container: the entries start with the name of the directory.
+    private static byte[] archive(Path modulesDirectory) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(archive); Stream<Path> paths = Files.walk(modulesDirectory)) {
+            tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String name = "modules-2/" + modulesDirectory.relativize(path).toString().replace('\\', '/');
+                if (Files.isDirectory(path)) {
+                    tarOutputStream.putArchiveEntry(new TarArchiveEntry(name.endsWith("/") ? name : name + "/"));
+                    tarOutputStream.closeArchiveEntry();
+                } else {
+                    TarArchiveEntry entry = new TarArchiveEntry(name);
+                    entry.setSize(Files.size(path));
+                    tarOutputStream.putArchiveEntry(entry);
+                    Files.copy(path, tarOutputStream);
+                    tarOutputStream.closeArchiveEntry();
+                }
+            }
+        }
+        return archive.toByteArray();
+    }
+
+    private static ByteArrayInputStream archive(Map<String, String> files) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(archive)) {
+            tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                byte[] content = file.getValue().getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry entry = new TarArchiveEntry(file.getKey());
+                entry.setSize(content.length);
+                tarOutputStream.putArchiveEntry(entry);
+                tarOutputStream.write(content);
+                tarOutputStream.closeArchiveEntry();
+            }
+        }
+        return new ByteArrayInputStream(archive.toByteArray());
+    }
+}
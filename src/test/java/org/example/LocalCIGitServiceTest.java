@@ -0,0 +1,46 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LocalCIGitServiceTest {
+
+    private static final String COMMIT_HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    @TempDir
+    Path repository;
+
+    private final LocalCIGitService gitService = new LocalCIGitService();
+
+    @Test
+    void resolvesTheBranchHeadRefersTo() throws IOException {
+        Files.writeString(repository.resolve("HEAD"), "ref: refs/heads/develop\n");
+        Files.createDirectories(repository.resolve("refs/heads"));
+        Files.writeString(repository.resolve("refs/heads/main"), "fedcba9876543210fedcba9876543210fedcba98\n");
+        Files.writeString(repository.resolve("refs/heads/develop"), COMMIT_HASH + "\n");
+
+        assertEquals(COMMIT_HASH, gitService.resolveCommitHash(repository));
+    }
+
+    @Test
+    void resolvesPackedDefaultBranch() throws IOException {
+        Files.writeString(repository.resolve("HEAD"), "ref: refs/heads/main\n");
+        Files.writeString(repository.resolve("packed-refs"), "# pack-refs with: peeled fully-peeled sorted\n" + COMMIT_HASH + " refs/heads/main\n");
+
+        assertEquals(COMMIT_HASH, gitService.resolveCommitHash(repository));
+    }
+
+    @Test
+    void rejectsMissingDefaultBranch() throws IOException {
+        Files.writeString(repository.resolve("HEAD"), "ref: refs/heads/main\n");
+
+        assertThrows(IOException.class, () -> gitService.resolveCommitHash(repository));
+    }
+}
@@ -0,0 +1,44 @@
+package org.example;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LocalCIResultCacheTest {
+
+    private final LocalCIResultCache cache = new LocalCIResultCache(10);
+
+    @Test
+    void cachesResultsWithTests() {
+        cache.put(key("a"), result(LocalCIBuildStatus.SUCCESSFUL, List.of(), List.of(new LocalCITestCaseDTO("passes", null))));
+        cache.put(key("b"), result(LocalCIBuildStatus.FAILED, List.of(new LocalCITestCaseDTO("fails", List.of("expected 1"))), List.of()));
+
+        assertEquals(LocalCIBuildStatus.SUCCESSFUL, cache.get(key("a")).getBuildStatus());
+        assertNotNull(cache.get(key("b")));
+    }
+
+    @Test
+    void doesNotCacheFailuresWithoutTests() {
+        // E.g. the build could not download a dependency while compiling.
+        cache.put(key("a"), result(LocalCIBuildStatus.FAILED, List.of(), List.of()));
+        cache.put(key("b"), result(LocalCIBuildStatus.TIMED_OUT, List.of(), List.of()));
+        cache.put(key("c"), result(LocalCIBuildStatus.INTERNAL_ERROR, List.of(), List.of()));
+
+        assertNull(cache.get(key("a")));
+        assertNull(cache.get(key("b")));
+        assertNull(cache.get(key("c")));
+        assertEquals(0, cache.size());
+    }
+
+    private static LocalCIResultCache.Key key(String assignmentCommitHash) {
+        return new LocalCIResultCache.Key(assignmentCommitHash, "test", BuildTool.MAVEN, "image");
+    }
+
+    private static LocalCIBuildJobDTO result(LocalCIBuildStatus status, List<LocalCITestCaseDTO> failedTests, List<LocalCITestCaseDTO> successfulTests) {
+        return new LocalCIBuildJobDTO(status, null, "assignment", "test", failedTests, successfulTests, List.of());
+    }
+}
@@ -0,0 +1,172 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalCIResultPublisherTest {
+
+    private static final Pattern RESULT_ID = Pattern.compile("\"resultId\"\\s*:\\s*\"([^\"]*)\"");
+
+    @TempDir
+    Path directory;
+
+    // Stands in for the LMS: answers every request with the status the test chooses and records the results it accepted.
+    private HttpServer lms;
+
+    private final List<String> acceptedResultIds = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<Integer> statusCodes = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile ToIntFunction<String> respond = body -> 200;
+
+    @AfterEach
+    void stopLms() {
+        if (lms != null) {
+            lms.stop(0);
+        }
+    }
+
+    @Test
+    void deliversResultsInOneBatch() throws Exception {
+        startLms();
+        try (LocalCIResultPublisher publisher = publisher(10, Duration.ofMillis(200))) {
+            publisher.publish("result-1", result());
+            publisher.publish("result-2", result());
+            publisher.publish("result-3", result());
+            awaitTrue(() -> publisher.getQueuedResults() == 0);
+        }
+        assertEquals(List.of("result-1", "result-2", "result-3"), acceptedResultIds);
+        assertEquals(List.of(200), statusCodes);
+    }
+
+    @Test
+    void retriesWhileTokenOrUrlIsWrong() throws Exception {
+        startLms();
+        List<Integer> answers = new ArrayList<>(List.of(401, 403, 404, 503));
+        respond = body -> answers.isEmpty() ? 200 : answers.remove(0);
+        try (LocalCIResultPublisher publisher = publisher(10, Duration.ZERO)) {
+            publisher.publish("result-1", result());
+            awaitTrue(() -> publisher.getQueuedResults() == 0);
+        }
+        assertEquals(List.of("result-1"), acceptedResultIds);
+        assertEquals(List.of(401, 403, 404, 503, 200), statusCodes);
+    }
+
+    @Test
+    void dropsOnlyRejectedResultsOfBatch() throws Exception {
+        startLms();
+        respond = body -> body.contains("invalid") ? 422 : 200;
+        try (LocalCIResultPublisher publisher = publisher(10, Duration.ofMillis(200))) {
+            publisher.publish("result-1", result());
+            publisher.publish("invalid-result", result());
+            publisher.publish("result-2", result());
+            awaitTrue(() -> publisher.getQueuedResults() == 0);
+            publisher.publish("result-3", result());
+            awaitTrue(() -> publisher.getQueuedResults() == 0);
+        }
+        assertEquals(List.of("result-1", "result-2", "result-3"), acceptedResultIds);
+        // The whole batch, then its results one by one, then a batch again.
+        assertEquals(List.of(422, 200, 422, 200, 200), statusCodes);
+    }
+
+    @Test
+    void deliversSpooledResultsAfterRestart() throws Exception {
+        startLms();
+        respond = body -> 503;
+        try (LocalCIResultPublisher publisher = publisher(10, Duration.ZERO)) {
+            publisher.publish("result-1", result());
+            publisher.publish("result-2", result());
+        }
+        respond = body -> 200;
+        try (LocalCIResultPublisher publisher = publisher(10, Duration.ZERO)) {
+            awaitTrue(() -> publisher.getQueuedResults() == 0);
+        }
+        assertEquals(List.of("result-1", "result-2"), acceptedResultIds);
+    }
+
+    @Test
+    void ignoresSpoolAfterTornOrCorruptRecord() throws Exception {
+        startLms();
+        respond = body -> 503;
+        try (LocalCIResultPublisher publisher = publisher(10, Duration.ZERO)) {
+            publisher.publish("result-1", result());
+            publisher.publish("result-2", result());
+        }
+        // A record with a length that cannot be right, followed by the start of a record cut off by a crash.
+        Files.write(spoolFile(), new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xF0, 0, 0, 0, 0, 0, 0, 0, 42, 1 }, StandardOpenOption.APPEND);
+        try (LocalCIResultPublisher publisher = publisher(10, Duration.ZERO)) {
+            publisher.publish("result-3", result());
+        }
+        // Damage the content of the last result.
+        byte[] spool = Files.readAllBytes(spoolFile());
+        spool[spool.length - 2] ^= 0x55;
+        Files.write(spoolFile(), spool);
+
+        respond = body -> 200;
+        try (LocalCIResultPublisher publisher = publisher(10, Duration.ZERO)) {
+            awaitTrue(() -> publisher.getQueuedResults() == 0);
+        }
+        assertEquals(List.of("result-1", "result-2"), acceptedResultIds);
+    }
+
+    private void startLms() throws IOException {
+        lms = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        lms.createContext("/results", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            int statusCode = respond.applyAsInt(body);
+            statusCodes.add(statusCode);
+            if (statusCode == 200) {
+                Matcher matcher = RESULT_ID.matcher(body);
+                while (matcher.find()) {
+                    acceptedResultIds.add(matcher.group(1));
+                }
+            }
+            exchange.sendResponseHeaders(statusCode, -1);
+            exchange.close();
+        });
+        lms.start();
+    }
+
+    private LocalCIResultPublisher publisher(int maxBatchSize, Duration linger) throws IOException {
+        URI endpoint = URI.create("http://127.0.0.1:" + lms.getAddress().getPort() + "/results");
+        return new LocalCIResultPublisher(endpoint, spoolFile(), maxBatchSize, linger, Duration.ofMillis(10), Duration.ofMillis(50));
+    }
+
+    private Path spoolFile() {
+        return directory.resolve("spool.log");
+    }
+
+    private static LocalCIBuildJobDTO result() {
+        return new LocalCIBuildJobDTO(LocalCIBuildStatus.SUCCESSFUL, null, "assignment-commit", "test-commit", List.of(), List.of(), List.of());
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met within 10 seconds");
+            Thread.sleep(10);
+        }
+    }
+}